@@ -1,26 +1,56 @@
 package org.cakelab.blender.io;
 
 import java.io.Closeable;
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
 
 import org.cakelab.blender.io.FileHeader.Version;
+import org.cakelab.blender.io.OpenOptions.BlockLoading;
+import org.cakelab.blender.io.OpenOptions.Spill;
 import org.cakelab.blender.io.block.Block;
 import org.cakelab.blender.io.block.BlockCodes;
 import org.cakelab.blender.io.block.BlockHeader;
+import org.cakelab.blender.io.block.BlockLoader;
 import org.cakelab.blender.io.block.BlockList;
 import org.cakelab.blender.io.block.BlockTable;
 import org.cakelab.blender.io.block.OverlappingBlocksException;
 import org.cakelab.blender.io.dna.DNAModel;
 import org.cakelab.blender.io.dna.DNAStruct;
 import org.cakelab.blender.io.dna.internal.StructDNA;
+import org.cakelab.blender.io.util.CBufferReadWrite;
 import org.cakelab.blender.io.util.CDataReadWriteAccess;
+import org.cakelab.blender.io.util.CFileChannelRW;
+import org.cakelab.blender.io.util.CMappedReadWrite;
+import org.cakelab.blender.io.util.CSeekableZstdReader;
+import org.cakelab.blender.io.util.CStreamReader;
+import org.cakelab.blender.io.util.CStreamWriter;
 import org.cakelab.blender.io.util.Identifier;
+import org.cakelab.blender.io.util.MappedRegions;
+import org.cakelab.blender.io.zstd.SeekableZstd;
 import org.cakelab.blender.metac.CMetaModel;
 import org.cakelab.blender.metac.CStruct;
+import org.cakelab.blender.nio.UnsignedLong;
 import org.cakelab.blender.versions.OffheapAreas;
 
 
@@ -42,6 +72,27 @@ import org.cakelab.blender.versions.OffheapAreas;
  * blender file then you can use the list returned from {@link #getBlocks()} 
  * instead. 
  * </p>
+ * <p>
+ * The constructor {@link #BlenderFile(File, OpenOptions)} allows to
+ * control how block data gets loaded. For example, large files can be 
+ * memory mapped (see {@link BlockLoading#MAPPED}) instead of being 
+ * copied into the heap. Files can also be opened read only 
+ * (see {@link OpenOptions#setReadOnly(boolean)}). Repeatedly opened files can be indexed 
+ * to avoid scanning all block headers on open 
+ * (see {@link OpenOptions#setHeaderIndex(boolean)}). Files which are 
+ * too large to be kept in memory can be read block by block with a 
+ * {@link BlockScanner}.
+ * </p>
+ * <p>
+ * Compressed files (see {@link Compression}) are decompressed 
+ * transparently. Writing a compressed file requires an uncompressed 
+ * temporary copy, which is controlled by {@link OpenOptions.Spill}.
+ * The compression format of the written file can be changed 
+ * (see {@link #setCompression(Compression)}). Compressed files can be
+ * written with a given compression level (see {@link #setCompressionLevel(int)})
+ * and compressed concurrently in independent frames 
+ * (see {@link #setCompressionExecutor(Executor)}).
+ * </p>
  * <h2>Writing</h2>
  * <p>Unfortunately, writing a blender file can take a bit more effort, especially 
  * if you are adding new blocks. First of all, it is important to know, that the
@@ -80,16 +131,374 @@ public class BlenderFile implements Closeable {
 
 
 	private File file;
+	
+	/** Memory mapped regions of the file (only in mode {@link BlockLoading#MAPPED}). */
+	private MappedRegions mappedRegions;
+	
+	/** Determines how the data of blocks gets loaded. */
+	private BlockLoading blockLoading = BlockLoading.COPY;
+	
+	/** Loads the data of lazy blocks from the io of the file it was created for. */
+	private class LazyBlockLoader implements BlockLoader {
+		
+		/** io of the file (replaced by atomic writes, see {@link OpenOptions#setAtomicWrite(boolean)}) */
+		private final CDataReadWriteAccess source;
+		
+		LazyBlockLoader(CDataReadWriteAccess source) {
+			this.source = source;
+		}
+
+		@Override
+		public CDataReadWriteAccess load(Block block) throws IOException {
+			if (io == null) throw new IOException("cannot load block data: file has been closed.");
+			byte[] data = new byte[block.header.getSize()];
+			synchronized(source) {
+				long pos = source.offset();
+				source.offset(block.getDataOffset());
+				source.readFully(data);
+				source.offset(pos);
+			}
+			return CDataReadWriteAccess.create(data, block.header.getAddress(), getEncoding());
+		}
+
+		@Override
+		public void transfer(Block block, CDataReadWriteAccess target) throws IOException {
+			if (io == null) throw new IOException("cannot transfer block data: file has been closed.");
+			if (!target.getByteOrder().equals(source.getByteOrder()) || target.getPointerSize() != source.getPointerSize()) {
+				throw new IOException("error: attempt to write a block with different encoding to another file");
+			}
+			synchronized(source) {
+				// The offset of the source is not restored, because the source 
+				// is never the target (see Block.flush) and consecutive 
+				// transfers of adjacent blocks can reuse its buffer.
+				source.transferTo(block.getDataOffset(), block.header.getSize(), target);
+			}
+		}
+
+		@Override
+		public boolean isSource(CDataReadWriteAccess target) {
+			return target == source;
+		}
+	}
+	
+	/** Loads lazy blocks from io and identifies blocks stored in io (see {@link Block#isStoredIn(CDataReadWriteAccess)}). */
+	private BlockLoader lazyLoader;
+	
+	/** Maximum range of the file read by one task in parallel loading, unless a single block is larger (see {@link OpenOptions#setExecutor(Executor)}). */
+	private static final int PARALLEL_BATCH_SIZE = 1024 * 1024;
+	
+	/**
+	 * Reads the bodies of a sequence of consecutive blocks 
+	 * through positional reads on the file channel. A single block
+	 * is read directly into its buffer. The range of multiple blocks
+	 * is capped by {@link BlenderFile#PARALLEL_BATCH_SIZE}.
+	 */
+	private static class BodyReader implements Callable<Void> {
+		private final FileChannel channel;
+		private final List<Block> blocks;
+		private final List<byte[]> buffers;
+		
+		BodyReader(FileChannel channel, List<Block> blocks, List<byte[]> buffers) {
+			this.channel = channel;
+			this.blocks = blocks;
+			this.buffers = buffers;
+		}
+
+		@Override
+		public Void call() throws IOException {
+			if (blocks.size() == 1) {
+				read(buffers.get(0), blocks.get(0).getDataOffset());
+			} else {
+				// read the whole range including block headers at once 
+				// and distribute it among the blocks
+				long start = blocks.get(0).getDataOffset();
+				Block last = blocks.get(blocks.size()-1);
+				byte[] range = new byte[(int) (last.getDataOffset() + last.header.getSize() - start)];
+				read(range, start);
+				for (int i = 0; i < blocks.size(); i++) {
+					byte[] buffer = buffers.get(i);
+					System.arraycopy(range, (int) (blocks.get(i).getDataOffset() - start), buffer, 0, buffer.length);
+				}
+			}
+			return null;
+		}
+
+		private void read(byte[] buffer, long offset) throws IOException {
+			ByteBuffer target = ByteBuffer.wrap(buffer);
+			while (target.hasRemaining()) {
+				int read = channel.read(target, offset);
+				if (read < 0) throw new EOFException("unexpected end of file.");
+				offset += read;
+			}
+		}
+	}
+	
+	/** Compression format of the file. */
+	private Compression compression = Compression.NONE;
+	
+	/** Compression level used to write the file (see {@link #setCompressionLevel(int)}). */
+	private int compressionLevel = Compression.DEFAULT_LEVEL;
+	
+	/** Executor to compress frames concurrently or null (see {@link #setCompressionExecutor(Executor)}). */
+	private Executor compressionExecutor;
+	
+	/** Options given on open (only required for compressed files). */
+	private OpenOptions options;
+	
+	/** Uncompressed temporary copy of a compressed file (see {@link Spill}). */
+	private File spillFile;
+	
+	/** Index of block headers of the file (see {@link OpenOptions#setHeaderIndex(boolean)}). */
+	private File headerIndexFile;
+
+	/** Receives notifications during {@link #write(List)} or null. */
+	private WriteListener writeListener;
+	
+	/** Size of the buffer used to write the file (see {@link #write(List)}). */
+	private static final int WRITE_BUFFER_SIZE = 1024 * 1024;
+	
+	/** Alignment of the sections of the Struct DNA. */
+	private static final int SDNA_ALIGNMENT = 4;
+	
+	/** Encoded DNA1 block written in case the blocks contain no DNA1 block (see {@link #writeSdnaBlock()}). */
+	private byte[] sdnaBlockImage;
+	/** Misalignment of the body of {@link #sdnaBlockImage}, which determines its padding. */
+	private int sdnaBlockAlignment;
+	/** Address of the block in {@link #sdnaBlockImage}. */
+	private long sdnaBlockAddress;
 
 
 	public BlenderFile(File file) throws IOException {
-		readFileHeader(CDataReadWriteAccess.create(new RandomAccessFile(file, "r"), Encoding.JAVA_NATIVE));
+		this(file, new OpenOptions());
+	}
+
+	public BlenderFile(File file, OpenOptions options) throws IOException {
 		this.file = file;
-		// proceed from here with an input stream which decodes data according to its endianess
-		io = CDataReadWriteAccess.create(new RandomAccessFile(file, "rw"), getEncoding());
-		readStructDNA();
+		this.options = options;
+		compression = Compression.detect(file);
+		if (compression == Compression.NONE) {
+			open(file, options);
+		} else if (compression == Compression.ZSTD && options.getSpill() != Spill.ON_OPEN && openSeekable(options)) {
+			// random access to a seekable zstd file
+		} else if (options.getSpill() == Spill.ON_OPEN) {
+			spillFile = createSpillFile();
+			try (InputStream in = compression.newInputStream(new FileInputStream(file))) {
+				Files.copy(in, spillFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			open(spillFile, options);
+		} else {
+			readCompressed();
+		}
+	}
+
+	/**
+	 * Opens an uncompressed file. The file is read in a single pass over 
+	 * the chain of block headers through a single channel (or no pass 
+	 * at all if there is a valid header index).
+	 */
+	private void open(File file, OpenOptions options) throws IOException {
+		FileChannel channel;
+		if (options.isReadOnly()) {
+			channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		} else {
+			channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+		}
+		try {
+			// byte order doesn't matter for the file header. The reader
+			// is not closed, because it shares the channel with io.
+			readHeader(CDataReadWriteAccess.create(channel, Encoding.JAVA_NATIVE));
+			// proceed from here with an input stream which decodes data according to its endianess
+			io = CDataReadWriteAccess.create(channel, getEncoding());
+		} finally {
+			if (io == null) channel.close();
+		}
+		blockLoading = options.getBlockLoading();
+		if (blockLoading == BlockLoading.MAPPED) {
+			mappedRegions = new MappedRegions(channel, options.isReadOnly() ? MapMode.READ_ONLY : MapMode.PRIVATE);
+		}
+		lazyLoader = new LazyBlockLoader(io);
+		// a temporary copy of a compressed file is not indexed
+		readIndexedBlocks(options.isHeaderIndex() && compression == Compression.NONE, channel.size());
+		String[] offheapAreas = OffheapAreas.get(header.version.getCode());
+		initBlockTable(getEncoding(), blocks, getSdnaIndices(offheapAreas));
+	}
+	
+	/**
+	 * Reads the blocks of the file from the header index of the file, 
+	 * if enabled and valid (see {@link OpenOptions#setHeaderIndex(boolean)}).
+	 * Otherwise, the chain of block headers gets scanned and the index
+	 * gets created, if enabled.
+	 * 
+	 * @param contentLength Length of the uncompressed content of the file.
+	 */
+	private void readIndexedBlocks(boolean headerIndex, long contentLength) throws IOException {
+		BlockHeaderIndex index = null;
+		if (headerIndex) {
+			headerIndexFile = BlockHeaderIndex.getIndexFile(file, options.getIndexDir());
+			index = BlockHeaderIndex.read(headerIndexFile, file, contentLength);
+		}
+		if (index != null) {
+			try {
+				sdna = new StructDNA();
+				// base address is the file offset to get the same padding as in the file
+				sdna.read(CDataReadWriteAccess.create(index.sdna, index.sdnaOffset, getEncoding()));
+				readBlocks(index);
+			} catch (IOException | RuntimeException e) {
+				// corrupted index: scan the file instead
+				index = null;
+			}
+		}
+		if (index == null) {
+			readBlocks(null);
+			if (headerIndexFile != null) {
+				writeHeaderIndex();
+			}
+		}
+	}
+	
+	/**
+	 * Creates the index of block headers of the file. The index is
+	 * an optimisation only. Thus, failures are ignored.
+	 */
+	private void writeHeaderIndex() {
+		try {
+			Block dna1 = findFirstBlock(BlockCodes.ID_DNA1);
+			byte[] data = ((CBufferReadWrite)dna1.data).getBytes();
+			new BlockHeaderIndex(blocks, dna1.getDataOffset(), data).write(headerIndexFile, file);
+		} catch (IOException e) {
+			headerIndexFile.delete();
+		}
+	}
+
+	/**
+	 * Opens a zstd file with seek table (see {@link SeekableZstd}) for 
+	 * random read access. Frames get decompressed on demand. Thus, block 
+	 * data can be loaded lazily. {@link BlockLoading#MAPPED} is treated 
+	 * as {@link BlockLoading#LAZY}.
+	 * <p>
+	 * Block headers are spread over the whole file. Thus, scanning the
+	 * chain of block headers decompresses almost every frame. Only a 
+	 * valid header index (see {@link OpenOptions#setHeaderIndex(boolean)})
+	 * avoids the scan, in which case lazily loaded files decompress
+	 * just the frame of the file header on open.
+	 * </p>
+	 * 
+	 * @return false, if the file has no seek table.
+	 */
+	private boolean openSeekable(OpenOptions options) throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		SeekableZstd source = null;
+		try {
+			source = SeekableZstd.open(channel);
+			if (source == null) return false;
+			readHeader(new CSeekableZstdReader(source, Encoding.JAVA_NATIVE.getByteOrder(), Encoding.JAVA_NATIVE.getAddressWidth()));
+			Encoding encoding = getEncoding();
+			io = new CSeekableZstdReader(source, encoding.getByteOrder(), encoding.getAddressWidth());
+		} finally {
+			if (io == null) channel.close();
+		}
+		
+		blockLoading = options.getBlockLoading() == BlockLoading.COPY ? BlockLoading.COPY : BlockLoading.LAZY;
+		lazyLoader = new LazyBlockLoader(io);
+		readIndexedBlocks(options.isHeaderIndex(), source.size());
 		String[] offheapAreas = OffheapAreas.get(header.version.getCode());
-		initBlockTable(getEncoding(), readBlocks(), getSdnaIndices(offheapAreas));
+		initBlockTable(getEncoding(), blocks, getSdnaIndices(offheapAreas));
+		return true;
+	}
+
+	/**
+	 * Reads a compressed file in a single pass from a decompressing stream.
+	 * The data of all blocks is read into the heap (see {@link BlockLoading#COPY})
+	 * and the Struct DNA is read from the data of block DNA1.
+	 */
+	private void readCompressed() throws IOException {
+		blockLoading = BlockLoading.COPY;
+		CStreamReader in = new CStreamReader(compression.newInputStream(new FileInputStream(file)), 
+				Encoding.JAVA_NATIVE.getByteOrder(), Encoding.JAVA_NATIVE.getAddressWidth(), 0);
+		try {
+			readHeader(in);
+			Encoding encoding = getEncoding();
+			in = new CStreamReader(in, encoding.getByteOrder(), encoding.getAddressWidth());
+			
+			blocks = new BlockList();
+			BlockHeader blockHeader;
+			do {
+				blockHeader = new BlockHeader();
+				blockHeader.read(in);
+				long offset = in.offset();
+				byte[] buffer = new byte[blockHeader.getSize()];
+				in.readFully(buffer);
+				if (sdna == null && blockHeader.getCode().equals(BlockCodes.ID_DNA1)) {
+					// base address is the file offset to get the same padding as in the file
+					sdna = new StructDNA();
+					sdna.read(CDataReadWriteAccess.create(buffer, offset, encoding));
+				}
+				CDataReadWriteAccess data = CDataReadWriteAccess.create(buffer, blockHeader.getAddress(), encoding);
+				blocks.add(new Block(blockHeader, data, offset));
+			} while (!blockHeader.getCode().equals(BlockCodes.ID_ENDB));
+		} finally {
+			in.close();
+		}
+		if (sdna == null) {
+			throw new IOException("corrupted file. Can't find block DNA1");
+		}
+		String[] offheapAreas = OffheapAreas.get(header.version.getCode());
+		initBlockTable(getEncoding(), blocks, getSdnaIndices(offheapAreas));
+	}
+	
+	private File createSpillFile() throws IOException {
+		return File.createTempFile(file.getName(), ".tmp", options.getTempDir());
+	}
+	
+	/**
+	 * Creates the temporary file to write a compressed file,
+	 * which was read from a decompressing stream or which was
+	 * previously uncompressed.
+	 */
+	private void spill() throws IOException {
+		if (options.getSpill() == Spill.NEVER) {
+			throw new IOException("compressed file was opened without support for writing (see OpenOptions.Spill).");
+		}
+		spillFile = createSpillFile();
+		io = CDataReadWriteAccess.create(FileChannel.open(spillFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE), getEncoding());
+		lazyLoader = new LazyBlockLoader(io);
+		header.write(io);
+		firstBlockOffset = io.offset();
+	}
+	
+	/**
+	 * Compresses the given amount of bytes of the temporary file into 
+	 * a temporary file next to the original file, which replaces the 
+	 * original file afterwards. Thus, the original file stays intact 
+	 * if compression fails, and a mapped original file is never 
+	 * truncated while blocks still refer to the mapping.
+	 */
+	private void compress(long length) throws IOException {
+		boolean atomic = options.isAtomicWrite();
+		File target = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+		try {
+			try (FileChannel in = FileChannel.open(spillFile.toPath(), StandardOpenOption.READ);
+					FileOutputStream fileOut = new FileOutputStream(target);
+					OutputStream out = compression.newOutputStream(fileOut, compressionLevel, compressionExecutor)) 
+			{
+				WritableByteChannel channel = Channels.newChannel(out);
+				long position = 0;
+				while (position < length) {
+					position += in.transferTo(position, length - position, channel);
+				}
+			}
+			copyPermissions(file, target);
+			if (atomic) {
+				try (FileChannel channel = FileChannel.open(target.toPath(), StandardOpenOption.WRITE)) {
+					channel.force(true);
+				}
+				Files.move(target.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} else {
+				Files.move(target.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			target.delete();
+		}
 	}
 
 	protected BlenderFile(File file, StructDNA sdna, int blenderVersion, String[] offheapAreas) throws IOException {
@@ -99,9 +508,12 @@ public class BlenderFile implements Closeable {
 	}
 	
 	protected BlenderFile(File file, StructDNA sdna, int blenderVersion, Encoding encoding, String[] offheapAreas) throws IOException {
+		this.file = file;
 		this.sdna = sdna;
+		// default options to write the file (e.g. compressed)
+		this.options = new OpenOptions();
 		
-		io = CDataReadWriteAccess.create(new RandomAccessFile(file, "rw"), encoding);
+		io = CDataReadWriteAccess.create(FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE), encoding);
 
 		header = new FileHeader();
 		header.endianess = FileHeader.Endianess.from(io.getByteOrder());
@@ -110,6 +522,7 @@ public class BlenderFile implements Closeable {
 		header.write(io);
 		
 		firstBlockOffset = io.offset();
+		lazyLoader = new LazyBlockLoader(io);
 		
 		blocks = new BlockList();
 		
@@ -123,6 +536,7 @@ public class BlenderFile implements Closeable {
 		try {
 			
 			blockTable = new BlockTable(encoding, blocks, sdnaIndices);
+			if (isReadOnly()) blockTable.setReadOnly(true);
 		} catch (OverlappingBlocksException e) {
 			e.addDetailedInfo(model);
 			throw new IOException(e);
@@ -141,18 +555,23 @@ public class BlenderFile implements Closeable {
 	 * @throws IOException
 	 */
 	protected void readFileHeader(CDataReadWriteAccess in) throws IOException {
+		try {
+			readHeader(in);
+		} finally {
+			try {in.close();} catch (Throwable suppress){}
+		}
+	}
+	
+	/**
+	 * Reads the file header and leaves the given reader open.
+	 */
+	private void readHeader(CDataReadWriteAccess in) throws IOException {
 		header = new FileHeader();
 		try {
 			header.read(in);
 			firstBlockOffset = in.offset();
-			in.close();
-			
 		} catch (IOException e) {
-			// it might be a compressed file
-			throw new IOException("file is either corrupted or uses the compressed format (not yet supported).\n"
-					+ "In the latter case, please uncompress it first (i.e. gunzip <file>.");
-		} finally {
-			try {in.close();} catch (Throwable suppress){}
+			throw new IOException("file is corrupted or not a blender file.", e);
 		}
 	}
 	
@@ -185,22 +604,220 @@ public class BlenderFile implements Closeable {
 	
 	/** Write given blocks to the file. This reorders only the Struct DNA (DNA1)
 	 * block and the End (ENDB) block. All other blocks have to be in the order 
-	 * expected by blender. */
+	 * expected by blender. 
+	 * <p>
+	 * Blocks which have not been modified since they were read or written 
+	 * (see {@link Block#isDirty()}) and stay at their location are not
+	 * written again. Thus, if the order of the blocks is unchanged, only the 
+	 * modified blocks get patched in place. Blocks behind an inserted or 
+	 * removed block are relocated. This does not apply to atomic writes 
+	 * (see {@link OpenOptions#setAtomicWrite(boolean)}), which always write
+	 * the whole file.
+	 * </p>
+	 * <p>
+	 * Compressed files are written to an uncompressed temporary file 
+	 * (see {@link OpenOptions.Spill}), which gets compressed into the file 
+	 * afterwards. Seekable zstd files and uncompressed files, which are 
+	 * going to be compressed (see {@link #setCompression(Compression)}),
+	 * receive the temporary file on the first write. Blocks, which have not 
+	 * been loaded yet, are transferred into it without loading them.
+	 * </p>
+	 */
 	public void write(List<Block> blocks) throws IOException {
-		io.offset(firstBlockOffset);
+		if (isReadOnly()) {
+			throw new IOException("file was opened read only (see OpenOptions.setReadOnly).");
+		}
+		if (!compression.isValidLevel(compressionLevel)) {
+			throw new IOException("invalid " + compression.name().toLowerCase() + " compression level: " + compressionLevel);
+		}
+		CDataReadWriteAccess previous = null;
+		BlockLoader previousLoader = null;
+		// io has to be an uncompressed file, which is not the target of compression
+		if (io == null || (spillFile == null && (compression != Compression.NONE || io instanceof CSeekableZstdReader))) {
+			previous = io;
+			previousLoader = lazyLoader;
+			spill();
+		}
+		if (headerIndexFile != null) {
+			headerIndexFile.delete();
+		}
+		
+		long size;
+		if (options != null && options.isAtomicWrite() && compression == Compression.NONE && spillFile == null) {
+			size = writeAtomic(blocks);
+		} else {
+			long[] offsets = new long[blocks.size()];
+			try {
+				loadDisplacedBlocks(blocks);
+				
+				// headers and small bodies get collected in a large buffer
+				// and written along with large bodies in gathering writes.
+				int bufferSize = 0;
+				if (io instanceof CFileChannelRW) {
+					bufferSize = ((CFileChannelRW)io).getBufferSize();
+					((CFileChannelRW)io).setBufferSize(WRITE_BUFFER_SIZE);
+				}
+				try {
+					writeBlocks(blocks, offsets, io);
+				} finally {
+					if (bufferSize > 0) {
+						((CFileChannelRW)io).setBufferSize(bufferSize);
+					}
+				}
+			} catch (IOException | RuntimeException e) {
+				if (previous != null) {
+					// blocks still refer to the previous io
+					io.close();
+					io = previous;
+					lazyLoader = previousLoader;
+					spillFile.delete();
+					spillFile = null;
+				}
+				throw e;
+			}
+			stored(blocks, offsets, previous != null ? previous : io);
+			size = io.offset();
+			if (previous != null) {
+				previous.close();
+			}
+		}
+		if (writeListener != null) {
+			writeListener.written(size);
+		}
 		
+		if (spillFile != null) {
+			compress(size);
+		}
+	}
+	
+	/**
+	 * Writes all blocks as an uncompressed blender file to the given stream.
+	 * The stream is not closed. See {@link #writeTo(List, WritableByteChannel)}.
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		writeTo(blocks, Channels.newChannel(out));
+	}
+	
+	/**
+	 * Writes all blocks as an uncompressed blender file to the given channel.
+	 * The channel is not closed. See {@link #writeTo(List, WritableByteChannel)}.
+	 */
+	public void writeTo(WritableByteChannel target) throws IOException {
+		writeTo(blocks, target);
+	}
+	
+	/**
+	 * Writes the given blocks as an uncompressed blender file to the given
+	 * channel (e.g. a socket) in a single forward pass. This file remains 
+	 * unmodified. Blocks are written in the same order as by {@link #write(List)}.
+	 * Block headers and the Struct DNA are known up front, thus no part of the 
+	 * output has to be revisited. Lazy blocks, which have not been loaded, are 
+	 * transferred from the file without loading them. The channel is not closed.
+	 * <p>
+	 * To produce a compressed file, pass a channel on a compressing stream 
+	 * (see {@link Compression#newOutputStream(OutputStream, int, Executor)}).
+	 * </p>
+	 */
+	public void writeTo(List<Block> blocks, WritableByteChannel target) throws IOException {
+		Encoding encoding = getEncoding();
+		CStreamWriter out = new CStreamWriter(target, encoding.getByteOrder(), encoding.getAddressWidth(), 0);
+		header.write(out);
+		writeBlocks(blocks, null, out);
+		if (writeListener != null) {
+			writeListener.written(out.offset());
+		}
+	}
+	
+	/**
+	 * Writes the given blocks to a temporary file next to the file, 
+	 * which replaces the file afterwards (see {@link OpenOptions#setAtomicWrite(boolean)}).
+	 * @return size of the file
+	 */
+	private long writeAtomic(List<Block> blocks) throws IOException {
+		CDataReadWriteAccess source = io;
+		File dir = file.getAbsoluteFile().getParentFile();
+		File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+		FileChannel channel = null;
+		try {
+			channel = FileChannel.open(tmp.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+			copyPermissions(file, tmp);
+			preallocate(channel, blocks);
+			
+			io = new CFileChannelRW(channel, source.getByteOrder(), source.getPointerSize(), WRITE_BUFFER_SIZE);
+			io.offset(0);
+			header.write(io);
+			long[] offsets = new long[blocks.size()];
+			writeBlocks(blocks, offsets, io);
+			long size = io.offset();
+			channel.truncate(size);
+			channel.force(true);
+			
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			
+			// from here on, the written file replaces the original file
+			((CFileChannelRW)io).setBufferSize(CFileChannelRW.DEFAULT_BUFFER_SIZE);
+			lazyLoader = new LazyBlockLoader(io);
+			stored(blocks, offsets, source);
+			source.close();
+			return size;
+		} catch (IOException | RuntimeException e) {
+			io = source;
+			if (channel != null) channel.close();
+			tmp.delete();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Grants the same permissions to the replacement of a file, if supported.
+	 */
+	private static void copyPermissions(File file, File replacement) {
+		try {
+			Files.setPosixFilePermissions(replacement.toPath(), Files.getPosixFilePermissions(file.toPath()));
+		} catch (UnsupportedOperationException | IOException e) {
+			// keep the default permissions
+		}
+	}
+	
+	/**
+	 * Extends the file to the size required by the given blocks,
+	 * to avoid growing the file in small steps.
+	 */
+	private void preallocate(FileChannel channel, List<Block> blocks) throws IOException {
+		long headerSize = BlockHeader.getHeaderSize(getEncoding().getAddressWidth());
+		long size = firstBlockOffset + headerSize;
+		for (Block block : blocks) {
+			if (block.header.getCode().equals(BlockCodes.ID_ENDB)) continue;
+			size += headerSize + block.header.getSize();
+		}
+		channel.write(ByteBuffer.allocate(1), size - 1);
+	}
+	
+	/**
+	 * Writes the given blocks to the given output.
+	 * @param offsets receives the data offsets of the written blocks or null.
+	 */
+	private void writeBlocks(List<Block> blocks, long[] offsets, CDataReadWriteAccess out) throws IOException {
+		long headerSize = BlockHeader.getHeaderSize(out.getPointerSize());
 		boolean sdnaWritten = false;
 		Block endBlock = null;
+		int endIndex = -1;
 		
-		io.offset(firstBlockOffset);
+		out.offset(firstBlockOffset);
 		// flush all blocks to disk
+		int i = 0;
 		for (Block block : blocks) {
-			System.out.println("writing " + block.header.getCode().toString());
 			if (block.header.getCode().equals(BlockCodes.ID_ENDB)) {
 				endBlock = block;
+				endIndex = i++;
 				continue;
 			}
-			block.flush(io);
+			if (writeListener != null) {
+				writeListener.writing(block, out.offset());
+			}
+			if (offsets != null) offsets[i] = out.offset() + headerSize;
+			i++;
+			block.flush(out);
 			
 			if (block.header.getCode().equals(BlockCodes.ID_DNA1)) {
 				sdnaWritten = true;
@@ -209,15 +826,69 @@ public class BlenderFile implements Closeable {
 		
 		if (!sdnaWritten) {
 			// sdna never existed in a block. Thus, we create one now on disk.
-			writeSdnaBlock();
+			if (out == io) {
+				writeSdnaBlock();
+			} else {
+				// stream output must not modify this file (e.g. its allocator)
+				long address = sdnaBlockImage != null ? sdnaBlockAddress : getUnusedAddress(blocks);
+				out.writeFully(createSdnaBlockImage(out.offset() + headerSize, address));
+			}
 		}
 		
 		if (endBlock != null) {
-			endBlock.flush(io);
-		} else {
+			if (writeListener != null) {
+				writeListener.writing(endBlock, out.offset());
+			}
+			if (offsets != null) offsets[endIndex] = out.offset() + headerSize;
+			endBlock.flush(out);
+		} else if (out == io) {
 			writeEndBlock();
+		} else {
+			new BlockHeader(BlockCodes.ID_ENDB, 0, 0, 0, 0).write(out);
+		}
+		out.flush();
+	}
+	
+	/**
+	 * Records the new locations of written blocks in io. Blocks which 
+	 * have not been modified since and stay at their location are 
+	 * skipped on subsequent writes.
+	 * @param previous io the blocks were stored in before.
+	 */
+	private void stored(List<Block> blocks, long[] offsets, CDataReadWriteAccess previous) {
+		int i = 0;
+		for (Block block : blocks) {
+			// Lazy blocks of other files, which have not been loaded,
+			// keep loading from their file.
+			if (block.isLoaded() || block.isStoredIn(previous)) {
+				block.stored(lazyLoader, offsets[i]);
+			}
+			i++;
+		}
+	}
+	
+	/**
+	 * Lazy blocks, which have not been loaded yet, and mapped blocks still 
+	 * reside in the file. Blocks which will be written to a different location, 
+	 * have to be loaded (or copied from the mapping) before they might get 
+	 * overwritten by other blocks.
+	 */
+	private void loadDisplacedBlocks(List<Block> blocks) throws IOException {
+		if (lazyLoader == null) return;
+		long headerSize = BlockHeader.getHeaderSize(io.getPointerSize());
+		long offset = firstBlockOffset;
+		for (Block block : blocks) {
+			if (block.header.getCode().equals(BlockCodes.ID_ENDB)) continue;
+			offset += headerSize;
+			if (block.isStoredIn(io) && block.getDataOffset() != offset) {
+				if (!block.isLoaded()) {
+					block.load();
+				} else if (block.data instanceof CMappedReadWrite) {
+					block.data = CDataReadWriteAccess.create(((CMappedReadWrite)block.data).getBytes(), block.header.getAddress(), getEncoding());
+				}
+			}
+			offset += block.header.getSize();
 		}
-		
 	}
 	
 	protected void writeEndBlock() throws IOException {
@@ -226,37 +897,63 @@ public class BlenderFile implements Closeable {
 	}
 
 	protected void writeSdnaBlock() throws IOException {
-		// TODO: ZZZ calculate size of snda block beforehand
-		long headerOffset = io.offset();
-		
-		//
-		// write a dummy header (lazy way to determine its size)
-		//
-		BlockHeader header = new BlockHeader();
-		header.write(io);
-		long dataOffset = io.offset();
+		long dataOffset = io.offset() + BlockHeader.getHeaderSize(io.getPointerSize());
+		io.writeFully(getSdnaBlockImage(dataOffset));
+	}
 
-		//
-		// write sdna to disk
-		//
-		sdna.write(io);
-		long end = io.offset();
-		
-		//
-		// create the actual header and write it to 'headerOffset'
-		//
-		
-		int size = (int) (end - dataOffset);
-		/// receive an address for the block from allocator
-		long address = blockTable.getAllocator().alloc(size);
-		int sdnaIndex = 0;
-		int count = 1;
-		header = new BlockHeader(BlockCodes.ID_DNA1, size, address, sdnaIndex, count);
-		
-		io.offset(headerOffset);
-		header.write(io);
+	/**
+	 * Provides the encoded DNA1 block (header and body) to be written 
+	 * in case the blocks contain no DNA1 block. The image is cached 
+	 * for subsequent writes.
+	 * 
+	 * @param dataOffset File offset of the body of the block. Padding
+	 * in the Struct DNA is relative to the file offset.
+	 */
+	private byte[] getSdnaBlockImage(long dataOffset) throws IOException {
+		int alignment = (int) (dataOffset % SDNA_ALIGNMENT);
+		if (sdnaBlockImage == null || sdnaBlockAlignment != alignment) {
+			int size = sdna.sizeof(dataOffset);
+			int headerSize = (int) BlockHeader.getHeaderSize(getEncoding().getAddressWidth());
+			/// receive an address for the block from allocator
+			if (sdnaBlockImage != null) {
+				blockTable.getAllocator().free(sdnaBlockAddress, sdnaBlockImage.length - headerSize);
+			}
+			sdnaBlockAddress = blockTable.getAllocator().alloc(size);
+			sdnaBlockImage = createSdnaBlockImage(dataOffset, sdnaBlockAddress);
+			sdnaBlockAlignment = alignment;
+		}
+		return sdnaBlockImage;
+	}
+
+	/**
+	 * Encodes a DNA1 block (header and body) with the given address.
+	 * @param dataOffset File offset of the body of the block.
+	 */
+	private byte[] createSdnaBlockImage(long dataOffset, long address) throws IOException {
+		int size = sdna.sizeof(dataOffset);
+		int headerSize = (int) BlockHeader.getHeaderSize(getEncoding().getAddressWidth());
+		BlockHeader header = new BlockHeader(BlockCodes.ID_DNA1, size, address, 0, 1);
 		
-		io.offset(end);
+		byte[] image = new byte[headerSize + size];
+		// base address is the file offset to get the same padding as in the file
+		CDataReadWriteAccess out = CDataReadWriteAccess.create(image, dataOffset - headerSize, getEncoding());
+		header.write(out);
+		sdna.write(out);
+		return image;
+	}
+
+	/**
+	 * Determines an address above all given blocks, which is used 
+	 * for a DNA1 block without allocating it.
+	 */
+	private static long getUnusedAddress(List<Block> blocks) {
+		long address = SDNA_ALIGNMENT;
+		for (Block block : blocks) {
+			long end = block.header.getAddress() + block.header.getSize();
+			if (UnsignedLong.compare(end, address) > 0) address = end;
+		}
+		// keep the address aligned like allocated memory
+		return (address + SDNA_ALIGNMENT - 1) & -SDNA_ALIGNMENT;
 	}
 
 	public DNAModel getBlenderModel() throws IOException {
@@ -270,12 +967,24 @@ public class BlenderFile implements Closeable {
 		CMetaModel meta = getMetaModel();
 		
 		FileVersionInfo versionInfo = null;
-		BlockHeader blockHeader = seekFirstBlock(BlockCodes.ID_GLOB);
+		CDataReadWriteAccess in = null;
+		if (io != null) {
+			if (seekFirstBlock(BlockCodes.ID_GLOB) != null) in = io;
+		} else {
+			// compressed file without random access: read block data instead
+			for (Block block : blocks) {
+				if (block.header.getCode().equals(BlockCodes.ID_GLOB)) {
+					in = block.data;
+					in.offset(0);
+					break;
+				}
+			}
+		}
 
-		if (blockHeader != null) {
+		if (in != null) {
 			CStruct struct = (CStruct) meta.getType("FileGlobal");
 			versionInfo = new FileVersionInfo();
-			versionInfo.read(struct, io);
+			versionInfo.read(struct, in);
 		} else {
 			throw new IOException("Can't find block GLOB (file global version info)");
 		}
@@ -297,6 +1006,7 @@ public class BlenderFile implements Closeable {
 	}
 	
 	public BlockHeader seekFirstBlock(Identifier code) throws IOException {
+		if (io == null) throw new IOException("no random access to compressed file (see OpenOptions.Spill).");
 		BlockHeader result = null;
 
 		io.offset(firstBlockOffset);
@@ -319,37 +1029,179 @@ public class BlenderFile implements Closeable {
 	}
 	
 	
-	private BlockList readBlocks() throws IOException {
+	/**
+	 * Reads all blocks in a single pass. Unless an index is given, the Struct DNA 
+	 * is parsed from block DNA1, which is always read into the heap for this purpose.
+	 * 
+	 * @param index Index of block headers or null to scan the chain of block headers.
+	 */
+	private BlockList readBlocks(BlockHeaderIndex index) throws IOException {
+		if (blockLoading == BlockLoading.COPY && options.getExecutor() != null && io instanceof CFileChannelRW) {
+			readBlocksParallel(((CFileChannelRW)io).getChannel(), options.getExecutor(), index);
+		} else if (index != null) {
+			blocks = new BlockList();
+			for (int i = 0; i < index.headers.length; i++) {
+				if (blockLoading == BlockLoading.LAZY) {
+					// no access to the file (e.g. to a frame of a compressed file)
+					blocks.add(new Block(index.headers[i], lazyLoader, index.offsets[i]));
+				} else {
+					io.offset(index.offsets[i]);
+					blocks.add(readBlock(index.headers[i], blockLoading));
+				}
+			}
+		} else {
+			blocks = new BlockList();
+			io.offset(firstBlockOffset);
+			BlockHeader blockHeader;
+			Block block;
+			// We read all blocks until we hit ENDB.
+			// There is always at least the DNA block in a .blend file.
+			do {
+				blockHeader = new BlockHeader();
+				blockHeader.read(io);
+				if (blockHeader.getCode().equals(BlockCodes.ID_DNA1)) {
+					block = readBlock(blockHeader, BlockLoading.COPY);
+				} else {
+					block = readBlock(blockHeader, blockLoading);
+				}
+				blocks.add(block);
+				
+			} while (!blockHeader.getCode().equals(BlockCodes.ID_ENDB));
+		}
+		
+		if (index == null) {
+			Block dna1 = findFirstBlock(BlockCodes.ID_DNA1);
+			if (dna1 == null) {
+				throw new IOException("corrupted file. Can't find block DNA1");
+			}
+			sdna = new StructDNA();
+			// base address is the file offset to get the same padding as in the file
+			sdna.read(CDataReadWriteAccess.create(((CBufferReadWrite)dna1.data).getBytes(), dna1.getDataOffset(), getEncoding()));
+		}
+		return blocks;
+	}
+	
+	/**
+	 * @return First block with the given code in the list of blocks read or null.
+	 */
+	private Block findFirstBlock(Identifier code) {
+		for (Block block : blocks) {
+			if (block.header.getCode().equals(code)) {
+				return block;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Scans all block headers and reads the block bodies concurrently
+	 * on the given executor. Bodies are read in batches of consecutive
+	 * blocks spanning at most {@link #PARALLEL_BATCH_SIZE} bytes. Larger
+	 * blocks form a batch of their own and are read without an
+	 * intermediate buffer.
+	 */
+	private void readBlocksParallel(FileChannel channel, Executor executor, BlockHeaderIndex index) throws IOException {
 		blocks = new BlockList();
+		List<FutureTask<Void>> tasks = new ArrayList<FutureTask<Void>>();
 		io.offset(firstBlockOffset);
-		BlockHeader blockHeader;
-		Block block;
-		// We read all blocks until we hit ENDB.
-		// There is always at least the DNA block in a .blend file.
-		do {
-			blockHeader = new BlockHeader();
-			blockHeader.read(io);
-			CDataReadWriteAccess data = readBlockData(blockHeader);
-			
-			block = new Block(blockHeader, data);
-			blocks.add(block);
+		try {
+			List<Block> batch = new ArrayList<Block>();
+			List<byte[]> buffers = new ArrayList<byte[]>();
+			long batchStart = 0;
+			BlockHeader blockHeader;
+			long offset;
+			int i = 0;
+			do {
+				if (index != null) {
+					blockHeader = index.headers[i];
+					offset = index.offsets[i];
+					i++;
+				} else {
+					blockHeader = new BlockHeader();
+					blockHeader.read(io);
+					offset = io.offset();
+					io.skip(blockHeader.getSize());
+				}
+				byte[] buffer = new byte[blockHeader.getSize()];
+				Block block = new Block(blockHeader, CDataReadWriteAccess.create(buffer, blockHeader.getAddress(), getEncoding()), lazyLoader, offset);
+				blocks.add(block);
+				
+				if (buffer.length == 0) continue;
+				if (!batch.isEmpty() && offset + buffer.length - batchStart > PARALLEL_BATCH_SIZE) {
+					tasks.add(submit(executor, new BodyReader(channel, batch, buffers)));
+					batch = new ArrayList<Block>();
+					buffers = new ArrayList<byte[]>();
+				}
+				if (batch.isEmpty()) batchStart = offset;
+				batch.add(block);
+				buffers.add(buffer);
+			} while (!blockHeader.getCode().equals(BlockCodes.ID_ENDB));
+			if (!batch.isEmpty()) {
+				tasks.add(submit(executor, new BodyReader(channel, batch, buffers)));
+			}
 			
-		} while (!blockHeader.getCode().equals(BlockCodes.ID_ENDB));
-		
-		return blocks;
+			for (FutureTask<Void> task : tasks) {
+				task.get();
+			}
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException("interrupted while loading blocks.");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) throw (IOException)cause;
+			throw new IOException(cause);
+		} finally {
+			for (FutureTask<Void> task : tasks) {
+				task.cancel(false);
+			}
+		}
 	}
 
-	private CDataReadWriteAccess readBlockData(BlockHeader blockHeader) throws IOException {
-		byte[] data = new byte[blockHeader.getSize()];
-		io.readFully(data);
-		return CDataReadWriteAccess.create(data, blockHeader.getAddress(), getEncoding());
+	private static FutureTask<Void> submit(Executor executor, BodyReader reader) {
+		FutureTask<Void> task = new FutureTask<Void>(reader);
+		executor.execute(task);
+		return task;
+	}
+
+	private Block readBlock(BlockHeader blockHeader, BlockLoading loading) throws IOException {
+		long offset = io.offset();
+		CDataReadWriteAccess data;
+		switch (loading) {
+		case LAZY:
+			io.skip(blockHeader.getSize());
+			return new Block(blockHeader, lazyLoader, offset);
+		case MAPPED:
+			io.skip(blockHeader.getSize());
+			data = CDataReadWriteAccess.create(mappedRegions, offset, blockHeader.getSize(), blockHeader.getAddress(), getEncoding());
+			break;
+		case COPY:
+		default:
+			byte[] buffer = new byte[blockHeader.getSize()];
+			io.readFully(buffer);
+			data = CDataReadWriteAccess.create(buffer, blockHeader.getAddress(), getEncoding());
+			break;
+		}
+		return new Block(blockHeader, data, lazyLoader, offset);
 	}
 
 
 	@Override
 	public void close() throws IOException {
-		io.close();
-		io = null;
+		if (blockTable != null) {
+			// thread local caches would keep blocks alive
+			blockTable.clearCaches();
+		}
+		if (mappedRegions != null) {
+			mappedRegions.close();
+			mappedRegions = null;
+		}
+		if (io != null) {
+			io.close();
+			io = null;
+		}
+		if (spillFile != null) {
+			spillFile.delete();
+			spillFile = null;
+		}
 	}
 
 	public FileHeader getHeader() {
@@ -394,4 +1246,85 @@ public class BlenderFile implements Closeable {
 	public File getFile() {
 		return file;
 	}
+
+	/**
+	 * Sets a listener which receives notifications about the progress 
+	 * of {@link #write(List)}.
+	 * @param listener Listener or null to remove the current listener (default).
+	 */
+	public void setWriteListener(WriteListener listener) {
+		this.writeListener = listener;
+	}
+
+	/**
+	 * @return true, if the file was opened read only (see {@link OpenOptions#setReadOnly(boolean)}).
+	 */
+	public boolean isReadOnly() {
+		return options != null && options.isReadOnly();
+	}
+
+	/**
+	 * @return Compression format of the file.
+	 */
+	public Compression getCompression() {
+		return compression;
+	}
+
+	/**
+	 * Sets the compression format used by subsequent writes 
+	 * (see {@link #write(List)}). This allows to compress an uncompressed 
+	 * file, to decompress a compressed file or to convert between formats.
+	 * Zstd compressed files are written in the seekable format used by 
+	 * Blender (see {@link org.cakelab.blender.io.zstd.SeekableZstd}).
+	 * 
+	 * @param compression Compression format of the file.
+	 */
+	public void setCompression(Compression compression) {
+		this.compression = compression;
+	}
+
+	/**
+	 * @return Compression level used to write the file.
+	 */
+	public int getCompressionLevel() {
+		return compressionLevel;
+	}
+
+	/**
+	 * Sets the compression level used to write a compressed file.
+	 * 
+	 * The level has to be valid for the current compression format 
+	 * of the file or, if the file is uncompressed, for any format.
+	 * It is validated again on {@link #write()}.
+	 * 
+	 * @param level 0-9 for gzip, 1-22 for zstd or {@link Compression#DEFAULT_LEVEL} (default).
+	 * @throws IllegalArgumentException if the level is invalid (see {@link Compression#isValidLevel(int)}).
+	 */
+	public void setCompressionLevel(int level) {
+		boolean valid = compression == Compression.NONE 
+				? Compression.GZIP.isValidLevel(level) || Compression.ZSTD.isValidLevel(level)
+				: compression.isValidLevel(level);
+		if (!valid) {
+			throw new IllegalArgumentException("invalid compression level: " + level);
+		}
+		this.compressionLevel = level;
+	}
+
+	/**
+	 * @return Executor to compress frames concurrently or null.
+	 */
+	public Executor getCompressionExecutor() {
+		return compressionExecutor;
+	}
+
+	/**
+	 * Sets an executor to compress a written file concurrently. The file is
+	 * split into frames of 1 MiB, which are compressed independently 
+	 * on the executor (see {@link Compression#newOutputStream(OutputStream, int, Executor)}).
+	 * 
+	 * @param executor Executor or null to compress in the writing thread (default).
+	 */
+	public void setCompressionExecutor(Executor executor) {
+		this.compressionExecutor = executor;
+	}
 }
@@ -0,0 +1,225 @@
+package org.cakelab.blender.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.cakelab.blender.io.block.Block;
+import org.cakelab.blender.io.block.BlockHeader;
+import org.cakelab.blender.io.util.Identifier;
+
+/**
+ * Persisted index of the block headers of a blender file
+ * (see {@link OpenOptions#setHeaderIndex(boolean)}).
+ * <p>
+ * The index contains all block headers, the file offsets of the
+ * block bodies and the raw body of block DNA1 (Struct DNA). It allows
+ * to reopen a file without scanning the chain of block headers.
+ * </p>
+ * <p>
+ * An index is valid as long as length, modification time and a
+ * checksum over the beginning and the end of the file match the values
+ * stored in the index. Invalid or corrupted indexes are ignored.
+ * </p>
+ * <p>
+ * The checksum does not cover the whole content, since this would require 
+ * to read the whole file, which the index is supposed to avoid. Thus, 
+ * a modification in the middle of the file, which retains length and 
+ * modification time (e.g. a tool restoring the time stamp), is not detected.
+ * </p>
+ */
+final class BlockHeaderIndex {
+
+	private static final int MAGIC = 0x4A424858; // "JBHX"
+	private static final int FORMAT_VERSION = 1;
+
+	/** amount of data at the beginning and the end of the file covered by the checksum */
+	private static final int CHECKSUM_RANGE = 64 * 1024;
+
+	private static final String SUFFIX = ".jbidx";
+
+	/** size of the fields preceding the body of DNA1 */
+	private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 8 + 8 + 4;
+	/** size of an entry of a block header */
+	private static final int ENTRY_SIZE = 4 + 4 + 8 + 4 + 4 + 8;
+
+
+	/** block headers in the order given in the file */
+	final BlockHeader[] headers;
+	/** file offsets of the block bodies */
+	final long[] offsets;
+	/** file offset of the body of block DNA1 */
+	final long sdnaOffset;
+	/** body of block DNA1 */
+	final byte[] sdna;
+
+
+	BlockHeaderIndex(BlockHeader[] headers, long[] offsets, long sdnaOffset, byte[] sdna) {
+		this.headers = headers;
+		this.offsets = offsets;
+		this.sdnaOffset = sdnaOffset;
+		this.sdna = sdna;
+	}
+
+	BlockHeaderIndex(List<Block> blocks, long sdnaOffset, byte[] sdna) {
+		this(new BlockHeader[blocks.size()], new long[blocks.size()], sdnaOffset, sdna);
+		int i = 0;
+		for (Block block : blocks) {
+			headers[i] = block.header;
+			offsets[i] = block.getDataOffset();
+			i++;
+		}
+	}
+
+	/**
+	 * Location of the index of the given file.
+	 *
+	 * @param dir Directory of the index file or null to store it
+	 *            next to the blender file.
+	 */
+	static File getIndexFile(File file, File dir) {
+		if (dir == null) {
+			return new File(file.getAbsolutePath() + SUFFIX);
+		} else {
+			// file name has to be unique for all files in the directory
+			String path = file.getAbsoluteFile().toPath().normalize().toString();
+			return new File(dir, file.getName() + "-" + Integer.toHexString(path.hashCode()) + SUFFIX);
+		}
+	}
+
+	/**
+	 * Reads the index of the given file.
+	 * @param contentLength Length of the uncompressed content of the file,
+	 *        which has to contain all blocks listed in the index.
+	 * @return index or null, if the index does not exist or is not valid.
+	 */
+	static BlockHeaderIndex read(File indexFile, File file, long contentLength) {
+		if (!indexFile.exists()) return null;
+		long length = indexFile.length();
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+			if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) return null;
+			if (in.readLong() != file.length()
+					|| in.readLong() != file.lastModified()
+					|| in.readLong() != checksum(file))
+			{
+				return null;
+			}
+
+			// sizes are checked against the size of the index before allocation
+			long sdnaOffset = in.readLong();
+			int sdnaSize = in.readInt();
+			if (sdnaSize < 0 || sdnaSize > length - HEADER_SIZE - 4) return null;
+			if (sdnaOffset < 0 || sdnaOffset > contentLength - sdnaSize) return null;
+			byte[] sdna = new byte[sdnaSize];
+			in.readFully(sdna);
+
+			int count = in.readInt();
+			if (count < 0 || (long) count * ENTRY_SIZE != length - HEADER_SIZE - sdnaSize - 4) return null;
+			BlockHeader[] headers = new BlockHeader[count];
+			long[] offsets = new long[count];
+			byte[] code = new byte[4];
+			// end of the preceding block
+			long end = 0;
+			for (int i = 0; i < count; i++) {
+				in.readFully(code);
+				int size = in.readInt();
+				long address = in.readLong();
+				int sdnaIndex = in.readInt();
+				int n = in.readInt();
+				headers[i] = new BlockHeader(new Identifier(code.clone()), size, address, sdnaIndex, n);
+				offsets[i] = in.readLong();
+				// blocks are in file order, don't overlap and lie within the content
+				if (size < 0 || offsets[i] < end || offsets[i] > contentLength - size) return null;
+				end = offsets[i] + size;
+			}
+			if (in.read() != -1) return null;
+			return new BlockHeaderIndex(headers, offsets, sdnaOffset, sdna);
+		} catch (IOException | RuntimeException e) {
+			// corrupted index
+			return null;
+		}
+	}
+
+	/**
+	 * Writes the index of the given file. The index is written to
+	 * a temporary file first, which replaces the index file afterwards.
+	 */
+	void write(File indexFile, File file) throws IOException {
+		File dir = indexFile.getAbsoluteFile().getParentFile();
+		if (!dir.exists()) dir.mkdirs();
+		File tmp = File.createTempFile(indexFile.getName(), ".tmp", dir);
+		try {
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+				out.writeInt(MAGIC);
+				out.writeInt(FORMAT_VERSION);
+				out.writeLong(file.length());
+				out.writeLong(file.lastModified());
+				out.writeLong(checksum(file));
+
+				out.writeLong(sdnaOffset);
+				out.writeInt(sdna.length);
+				out.write(sdna);
+
+				out.writeInt(headers.length);
+				for (int i = 0; i < headers.length; i++) {
+					BlockHeader header = headers[i];
+					out.write(header.getCode().getData());
+					out.writeInt(header.getSize());
+					out.writeLong(header.getAddress());
+					out.writeInt(header.getSdnaIndex());
+					out.writeInt(header.getCount());
+					out.writeLong(offsets[i]);
+				}
+			}
+			try {
+				Files.move(tmp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tmp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			tmp.delete();
+		}
+	}
+
+	/**
+	 * Checksum over the beginning and the end of the file.
+	 * This covers the file header and usually the blocks DNA1 and ENDB.
+	 */
+	private static long checksum(File file) throws IOException {
+		CRC32 crc = new CRC32();
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long size = channel.size();
+			ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(size, CHECKSUM_RANGE));
+			read(channel, buffer, 0);
+			crc.update(buffer.array(), 0, buffer.limit());
+			if (size > CHECKSUM_RANGE) {
+				buffer.clear();
+				read(channel, buffer, Math.max(CHECKSUM_RANGE, size - CHECKSUM_RANGE));
+				crc.update(buffer.array(), 0, buffer.limit());
+			}
+		}
+		return crc.getValue();
+	}
+
+	private static void read(FileChannel channel, ByteBuffer buffer, long offset) throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, offset);
+			if (read < 0) break;
+			offset += read;
+		}
+		buffer.flip();
+	}
+}
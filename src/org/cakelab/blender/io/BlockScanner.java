@@ -0,0 +1,212 @@
+package org.cakelab.blender.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.cakelab.blender.io.block.Block;
+import org.cakelab.blender.io.block.BlockCodes;
+import org.cakelab.blender.io.block.BlockHeader;
+import org.cakelab.blender.io.block.BlockVisitor;
+import org.cakelab.blender.io.dna.DNAModel;
+import org.cakelab.blender.io.dna.internal.StructDNA;
+import org.cakelab.blender.io.util.CBufferReadWrite;
+import org.cakelab.blender.io.util.CDataReadWriteAccess;
+import org.cakelab.blender.io.util.CStreamReader;
+
+/**
+ * Streaming access to the blocks of a blender file.
+ * <p>
+ * In contrast to {@link BlenderFile}, a block scanner does not keep 
+ * any blocks in memory. The file is read once from start to end and 
+ * each block is handed to a {@link BlockVisitor}. The data of all blocks
+ * is read into a single buffer, which is reused for every block. 
+ * Thus, memory consumption is constant (bounded by the size of the 
+ * largest block accepted by the visitor), which allows to scan very 
+ * large files. Compressed files (see {@link Compression}) are 
+ * decompressed while reading.
+ * </p>
+ * <p>
+ * The Struct DNA (and therefore the {@link DNAModel}) is required to 
+ * interpret block data. It is usually stored near the end of the file 
+ * and gets read in a separate pass on first call to {@link #getStructDNA()},
+ * unless it was already found by a previous scan. In case of a compressed file 
+ * this pass has to decompress the file up to block DNA1. 
+ * </p>
+ * <pre>
+ * try (BlockScanner scanner = new BlockScanner(file)) {
+ *     final DNAModel model = scanner.getBlenderModel();
+ *     scanner.scan(new BlockVisitor() {
+ *         public boolean accept(BlockHeader header) {
+ *             return header.getCode().equals(BlockCodes.ID_OB);
+ *         }
+ *         public boolean visit(Block block) throws IOException {
+ *             // interpret block data using model
+ *             return true;
+ *         }
+ *     });
+ * }
+ * </pre>
+ */
+public class BlockScanner implements Closeable {
+
+	private File file;
+	private Compression compression;
+	private FileHeader header;
+	/** file offset of the first block header */
+	private long firstBlockOffset;
+	
+	private StructDNA sdna;
+	private DNAModel model;
+	
+	/** reusable buffer for block data */
+	private byte[] buffer = new byte[0];
+
+	
+	public BlockScanner(File file) throws IOException {
+		this.file = file;
+		this.compression = Compression.detect(file);
+		CStreamReader in = open();
+		try {
+			header = new FileHeader();
+			try {
+				header.read(in);
+			} catch (IOException e) {
+				throw new IOException("file is corrupted or not a blender file.", e);
+			}
+			firstBlockOffset = in.offset();
+		} finally {
+			in.close();
+		}
+	}
+	
+	/**
+	 * Opens a new stream on the file with the encoding of the file header,
+	 * if known already.
+	 */
+	private CStreamReader open() throws IOException {
+		Encoding encoding = header != null ? getEncoding() : Encoding.JAVA_NATIVE;
+		return new CStreamReader(compression.newInputStream(new FileInputStream(file)), 
+				encoding.getByteOrder(), encoding.getAddressWidth(), 0);
+	}
+	
+	/**
+	 * Reads all blocks in file order and hands them over to the given visitor,
+	 * until the visitor stops the scan or block ENDB has been reached.
+	 * Block ENDB is visited too.
+	 */
+	public void scan(BlockVisitor visitor) throws IOException {
+		CStreamReader in = open();
+		try {
+			in.offset(firstBlockOffset);
+			Encoding encoding = getEncoding();
+			BlockHeader blockHeader = new BlockHeader();
+			boolean proceed = true;
+			do {
+				blockHeader.read(in);
+				long offset = in.offset();
+				int size = blockHeader.getSize();
+				boolean isSdna = sdna == null && blockHeader.getCode().equals(BlockCodes.ID_DNA1);
+				if (visitor.accept(blockHeader)) {
+					in.readFully(reserve(size), 0, size);
+					if (isSdna) {
+						readStructDNA(buffer, size, offset);
+					}
+					ByteBuffer data = ByteBuffer.wrap(buffer, 0, size).slice();
+					data.order(encoding.getByteOrder());
+					Block block = new Block(blockHeader, new CBufferReadWrite(data, blockHeader.getAddress(), encoding.getAddressWidth()), offset);
+					proceed = visitor.visit(block);
+				} else if (isSdna) {
+					// we are passing by anyway
+					byte[] data = new byte[size];
+					in.readFully(data);
+					readStructDNA(data, size, offset);
+				} else {
+					in.skip(size);
+				}
+			} while (proceed && !blockHeader.getCode().equals(BlockCodes.ID_ENDB));
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Provides the reusable buffer with at least the given size.
+	 */
+	private byte[] reserve(int size) {
+		if (buffer.length < size) {
+			buffer = new byte[size];
+		}
+		return buffer;
+	}
+	
+	private void readStructDNA(byte[] data, int size, long offset) throws IOException {
+		Encoding encoding = getEncoding();
+		ByteBuffer buffer = ByteBuffer.wrap(data, 0, size).slice();
+		buffer.order(encoding.getByteOrder());
+		StructDNA sdna = new StructDNA();
+		// base address is the file offset to get the same padding as in the file
+		sdna.read(new CBufferReadWrite(buffer, offset, encoding.getAddressWidth()));
+		this.sdna = sdna;
+	}
+	
+	/**
+	 * @return Struct DNA of the file, which will be read on first call, if necessary.
+	 */
+	public StructDNA getStructDNA() throws IOException {
+		if (sdna == null) {
+			// the struct DNA is read when passing by block DNA1
+			scan(new BlockVisitor() {
+				@Override
+				public boolean accept(BlockHeader header) throws IOException {
+					return header.getCode().equals(BlockCodes.ID_DNA1);
+				}
+				@Override
+				public boolean visit(Block block) throws IOException {
+					return false;
+				}
+			});
+			if (sdna == null) {
+				throw new IOException("corrupted file. Can't find block DNA1");
+			}
+		}
+		return sdna;
+	}
+	
+	public DNAModel getBlenderModel() throws IOException {
+		if (model == null) {
+			model = new DNAModel(getStructDNA());
+		}
+		return model;
+	}
+
+	public FileHeader getHeader() {
+		return header;
+	}
+
+	/**
+	 * @return Encoding according to the files header
+	 */
+	public Encoding getEncoding() {
+		return Encoding.get(header.getByteOrder(), header.getPointerSize());
+	}
+	
+	public Compression getCompression() {
+		return compression;
+	}
+	
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Releases the reusable buffer. 
+	 */
+	@Override
+	public void close() throws IOException {
+		buffer = new byte[0];
+	}
+
+}
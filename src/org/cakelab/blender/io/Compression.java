@@ -0,0 +1,153 @@
+package org.cakelab.blender.io;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.Executor;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.cakelab.blender.io.util.ParallelGzipOutputStream;
+import org.cakelab.blender.io.zstd.SeekableZstd;
+import org.cakelab.blender.io.zstd.ZstdInputStream;
+import org.cakelab.blender.io.zstd.ZstdOutputStream;
+
+/**
+ * Compression formats of .blend files.
+ * <p>
+ * Blender optionally saves files compressed. The format is
+ * detected by its magic number at the beginning of the file 
+ * (see {@link #detect(File)}).
+ * </p>
+ */
+public enum Compression {
+	/** uncompressed .blend file */
+	NONE,
+	/** gzip compressed .blend file */
+	GZIP,
+	/** Zstandard compressed .blend file (written in the seekable format, see {@link SeekableZstd}) */
+	ZSTD;
+
+	/** Selects the default compression level of the format. */
+	public static final int DEFAULT_LEVEL = -1;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+	
+	/**
+	 * Determines the compression format of the given file.
+	 * 
+	 * @param file
+	 * @return compression format or {@link #NONE} if unknown.
+	 * @throws IOException
+	 */
+	public static Compression detect(File file) throws IOException {
+		byte[] magic = new byte[4];
+		int len = 0;
+		try (InputStream in = new FileInputStream(file)) {
+			int read;
+			while (len < magic.length && (read = in.read(magic, len, magic.length - len)) >= 0) {
+				len += read;
+			}
+		}
+		if (len >= 2 && (magic[0]&0xff) == 0x1f && (magic[1]&0xff) == 0x8b) {
+			return GZIP;
+		}
+		if (len >= 4 && (magic[0]&0xff) == 0x28 && (magic[1]&0xff) == 0xb5 
+				&& (magic[2]&0xff) == 0x2f && (magic[3]&0xff) == 0xfd) {
+			return ZSTD;
+		}
+		return NONE;
+	}
+	
+	/**
+	 * @param in stream of compressed data
+	 * @return stream, which decompresses the given stream.
+	 * @throws IOException
+	 */
+	public InputStream newInputStream(InputStream in) throws IOException {
+		switch(this) {
+		case GZIP:
+			return new GZIPInputStream(in, BUFFER_SIZE);
+		case ZSTD:
+			return new ZstdInputStream(new BufferedInputStream(in, BUFFER_SIZE));
+		case NONE:
+		default:
+			return in;
+		}
+	}
+
+	/**
+	 * Tests whether the given compression level is supported by this format.
+	 * Any level is accepted for {@link #NONE}, because it is ignored.
+	 * 
+	 * @param level compression level (0-9 for gzip, 1-22 for zstd) or {@link #DEFAULT_LEVEL}.
+	 * @return true, if the level is valid.
+	 */
+	public boolean isValidLevel(int level) {
+		switch(this) {
+		case GZIP:
+			return level == DEFAULT_LEVEL || (level >= 0 && level <= 9);
+		case ZSTD:
+			return level == DEFAULT_LEVEL || (level >= ZstdOutputStream.MIN_LEVEL && level <= ZstdOutputStream.MAX_LEVEL);
+		case NONE:
+		default:
+			return true;
+		}
+	}
+
+	/**
+	 * @param out stream receiving compressed data
+	 * @return stream, which compresses data written to it into the given stream.
+	 * @throws IOException
+	 */
+	public OutputStream newOutputStream(OutputStream out) throws IOException {
+		return newOutputStream(out, DEFAULT_LEVEL, null);
+	}
+
+	/**
+	 * Creates a compressing stream with the given compression level.
+	 * <p>
+	 * If an executor is given, the data is split into frames of 1 MiB,
+	 * which get compressed concurrently on the executor. Gzip
+	 * output remains a single gzip member (frames are joined by
+	 * sync flushes), zstd output consists of independent frames 
+	 * listed in a seek table (see {@link SeekableZstd}). 
+	 * </p>
+	 * @param out stream receiving compressed data
+	 * @param level compression level (0-9 for gzip, 1-22 for zstd) or {@link #DEFAULT_LEVEL}.
+	 * @param executor executor to compress frames concurrently or null.
+	 * @return stream, which compresses data written to it into the given stream.
+	 * @throws IllegalArgumentException if the level is invalid (see {@link #isValidLevel(int)}).
+	 * @throws IOException
+	 */
+	public OutputStream newOutputStream(OutputStream out, final int level, Executor executor) throws IOException {
+		if (!isValidLevel(level)) {
+			throw new IllegalArgumentException("invalid " + name().toLowerCase() + " compression level: " + level);
+		}
+		switch(this) {
+		case GZIP:
+			int gzipLevel = level == DEFAULT_LEVEL ? Deflater.DEFAULT_COMPRESSION : level;
+			if (executor != null) {
+				return new ParallelGzipOutputStream(out, gzipLevel, executor);
+			} else if (gzipLevel != Deflater.DEFAULT_COMPRESSION) {
+				return new GZIPOutputStream(out, BUFFER_SIZE) {
+					{
+						def.setLevel(level);
+					}
+				};
+			} else {
+				return new GZIPOutputStream(out, BUFFER_SIZE);
+			}
+		case ZSTD:
+			int zstdLevel = level == DEFAULT_LEVEL ? ZstdOutputStream.DEFAULT_LEVEL : level;
+			return new ZstdOutputStream(out, zstdLevel, executor);
+		case NONE:
+		default:
+			return out;
+		}
+	}
+}
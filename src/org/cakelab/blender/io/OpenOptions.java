@@ -0,0 +1,252 @@
+package org.cakelab.blender.io;
+
+import java.io.File;
+import java.util.concurrent.Executor;
+
+/**
+ * Options to control how a {@link BlenderFile} gets opened and
+ * how the data of its blocks gets loaded.
+ *
+ * <h3>Block Loading</h3>
+ * <ul>
+ * <li>{@link BlockLoading#COPY}: The body of each block is read
+ * into a byte array on the heap when the file gets opened.
+ * This is the default.</li>
+ * <li>{@link BlockLoading#MAPPED}: The file is mapped into memory
+ * and each block receives a view on its body in the mapped region.
+ * Nothing is copied at open time and the operating system
+ * loads pages on first access. Modifications are private
+ * to the process (copy on write) until the file gets written.</li>
+ * <li>{@link BlockLoading#LAZY}: Only block headers are read when 
+ * the file gets opened. The body of a block is read into the heap on 
+ * first access to its data. Thus, the file has to stay open as long as 
+ * blocks are in use.</li>
+ * </ul>
+ * 
+ * <h3>Compressed Files</h3>
+ * <p>
+ * Compressed files (see {@link Compression}) are decompressed while they are 
+ * read. Because a decompressing stream provides no random access, blocks 
+ * are read into the heap (same as {@link BlockLoading#COPY}) in a single 
+ * pass. Random access to an uncompressed copy of the file in a temporary 
+ * file is only required to write the file. When and whether this copy
+ * gets created is controlled by {@link Spill}:
+ * </p>
+ * <ul>
+ * <li>{@link Spill#ON_WRITE}: The temporary file is created on the first
+ * call to {@link BlenderFile#write()}. This is the default.</li>
+ * <li>{@link Spill#ON_OPEN}: The file is decompressed into a temporary 
+ * file when it gets opened and the temporary file is read as if it was 
+ * the original file. This allows to use any mode of block loading.</li>
+ * <li>{@link Spill#NEVER}: Writing is not supported.</li>
+ * </ul>
+ * <p>
+ * After writing, the temporary file gets compressed into the original file.
+ * The temporary file is deleted when the file gets closed.
+ * </p>
+ * <p>
+ * Zstd files with a seek table (see {@link org.cakelab.blender.io.zstd.SeekableZstd}) 
+ * are an exception: They provide random access without a temporary file and 
+ * support {@link BlockLoading#LAZY}, which decompresses only those frames 
+ * that contain data of accessed blocks ({@link BlockLoading#MAPPED} is 
+ * treated as {@link BlockLoading#LAZY}). They receive the temporary file 
+ * on the first write, and are written in the seekable format again.
+ * Since block headers are spread over the whole file, opening still 
+ * decompresses almost every frame to scan the block headers, unless 
+ * a valid header index exists (see {@link #setHeaderIndex(boolean)}). 
+ * Frames are decompressed one at a time, even if blocks are loaded
+ * concurrently.
+ * </p>
+ * 
+ * <h3>Read Only</h3>
+ * <p>
+ * A file opened read only (see {@link #setReadOnly(boolean)}) requires 
+ * read permission only. The file is accessed through read only channels 
+ * and in mode {@link BlockLoading#MAPPED} it is mapped read only 
+ * ({@link java.nio.channels.FileChannel.MapMode#READ_ONLY}), which allows 
+ * the operating system to share its pages between processes. 
+ * In all loading modes, the write methods of blocks throw an IOException,
+ * allocating or freeing blocks throws an {@link IllegalStateException} 
+ * (see {@link org.cakelab.blender.io.block.BlockTable#setReadOnly(boolean)}) 
+ * and {@link BlenderFile#write()} is rejected. Modifying the 
+ * {@link org.cakelab.blender.io.block.Block#data} of a block directly 
+ * is not detected, except for mapped block data, which throws a 
+ * {@link java.nio.ReadOnlyBufferException}.
+ * </p>
+ * 
+ * <h3>Parallel Loading</h3>
+ * <p>
+ * In mode {@link BlockLoading#COPY}, block bodies of an uncompressed file 
+ * can be read concurrently by providing an {@link Executor} 
+ * (see {@link #setExecutor(Executor)}). Block headers are scanned first.
+ * Afterwards, the bodies are read in batches on the executor through
+ * positional reads on the file channel. The resulting list of blocks 
+ * is identical to sequential loading. By default, blocks are loaded 
+ * sequentially by the calling thread.
+ * </p>
+ * 
+ * <h3>Header Index</h3>
+ * <p>
+ * Opening a file requires to scan the chain of block headers. For files,
+ * which are opened repeatedly, the block headers and the Struct DNA 
+ * can be stored in an index file (see {@link #setHeaderIndex(boolean)}).
+ * The index is created when the file is opened the first time and used
+ * on subsequent opens as long as the file was not modified. By default,
+ * the index file is stored next to the blender file (suffix 
+ * <code>.jbidx</code>). Alternatively, a cache directory can be 
+ * specified (see {@link #setIndexDir(File)}). Of compressed files, only 
+ * seekable zstd files are indexed.
+ * </p>
+ * 
+ * <h3>Atomic Write</h3>
+ * <p>
+ * By default, {@link BlenderFile#write()} modifies the file in place. 
+ * Only modified blocks are rewritten, but a failure during write leaves
+ * the file corrupted. With atomic write enabled (see {@link #setAtomicWrite(boolean)}),
+ * the file is written to a temporary file in the same directory, which 
+ * replaces the original file by an atomic rename when it is complete and
+ * forced to the storage device. The original file stays intact and readable 
+ * until then. Blocks, which have not been loaded yet, are transferred from
+ * the original file without loading them.
+ * Compressed files are always compressed into a temporary file next to the 
+ * original file, which replaces the original file when it is complete. 
+ * Atomic write additionally forces the file to the storage device and 
+ * replaces the original file by an atomic rename.
+ * </p>
+ */
+public class OpenOptions {
+
+	public static enum BlockLoading {
+		/** read block data into heap buffers */
+		COPY,
+		/** map block data into memory */
+		MAPPED,
+		/** read block data on first access */
+		LAZY
+	}
+
+	public static enum Spill {
+		/** never create an uncompressed temporary file (read only) */
+		NEVER,
+		/** create an uncompressed temporary file when writing */
+		ON_WRITE,
+		/** create an uncompressed temporary file when opening */
+		ON_OPEN
+	}
+	
+	private BlockLoading blockLoading = BlockLoading.COPY;
+
+	private Spill spill = Spill.ON_WRITE;
+	
+	/** directory for temporary files or null for the system default */
+	private File tempDir;
+	
+	/** whether the file is opened without write access */
+	private boolean readOnly;
+	
+	/** executor to load block bodies concurrently or null */
+	private Executor executor;
+	
+	/** whether to use a persisted index of block headers */
+	private boolean headerIndex;
+	
+	/** directory for index files or null to store them next to the blender file */
+	private File indexDir;
+	
+	/** whether the file is written to a temporary file which replaces the file afterwards */
+	private boolean atomicWrite;
+
+	public OpenOptions() {}
+
+	public OpenOptions(BlockLoading blockLoading) {
+		this.blockLoading = blockLoading;
+	}
+
+	public BlockLoading getBlockLoading() {
+		return blockLoading;
+	}
+
+	public void setBlockLoading(BlockLoading blockLoading) {
+		this.blockLoading = blockLoading;
+	}
+
+	public Spill getSpill() {
+		return spill;
+	}
+
+	public void setSpill(Spill spill) {
+		this.spill = spill;
+	}
+
+	public File getTempDir() {
+		return tempDir;
+	}
+
+	/**
+	 * Sets the directory for temporary files.
+	 * @param tempDir directory or null for the system default
+	 */
+	public void setTempDir(File tempDir) {
+		this.tempDir = tempDir;
+	}
+
+	public boolean isReadOnly() {
+		return readOnly;
+	}
+
+	/**
+	 * Opens the file without write access (default: false).
+	 */
+	public void setReadOnly(boolean readOnly) {
+		this.readOnly = readOnly;
+	}
+
+	public Executor getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * Sets an executor to load block bodies concurrently 
+	 * (only in mode {@link BlockLoading#COPY}).
+	 * @param executor executor or null to load blocks sequentially (default)
+	 */
+	public void setExecutor(Executor executor) {
+		this.executor = executor;
+	}
+
+	public boolean isHeaderIndex() {
+		return headerIndex;
+	}
+
+	/**
+	 * Enables the use of a persisted index of block headers (default: false).
+	 */
+	public void setHeaderIndex(boolean headerIndex) {
+		this.headerIndex = headerIndex;
+	}
+
+	public File getIndexDir() {
+		return indexDir;
+	}
+
+	/**
+	 * Sets the directory for index files.
+	 * @param indexDir directory or null to store index files next to the blender file (default)
+	 */
+	public void setIndexDir(File indexDir) {
+		this.indexDir = indexDir;
+	}
+
+	public boolean isAtomicWrite() {
+		return atomicWrite;
+	}
+
+	/**
+	 * Writes the file through a temporary file, which atomically 
+	 * replaces the file when complete (default: false).
+	 */
+	public void setAtomicWrite(boolean atomicWrite) {
+		this.atomicWrite = atomicWrite;
+	}
+
+}
@@ -0,0 +1,23 @@
+package org.cakelab.blender.io;
+
+import org.cakelab.blender.io.block.Block;
+
+/**
+ * Receives progress notifications of {@link BlenderFile#write(java.util.List)}
+ * (see {@link BlenderFile#setWriteListener(WriteListener)}).
+ */
+public interface WriteListener {
+
+	/**
+	 * Called before the given block gets written.
+	 * @param block Block to be written.
+	 * @param offset File offset of the block header.
+	 */
+	void writing(Block block, long offset);
+
+	/**
+	 * Called after all blocks have been written.
+	 * @param size Size of the (uncompressed) file.
+	 */
+	void written(long size);
+}
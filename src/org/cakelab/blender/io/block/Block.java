@@ -1,6 +1,7 @@
 package org.cakelab.blender.io.block;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.ByteOrder;
 
 import org.cakelab.blender.io.util.CBufferReadWrite;
@@ -24,15 +25,54 @@ public class Block implements Comparable<Long> {
 	/** the header as read from the file */
 	public BlockHeader header;
 	
-	/** raw data in a byte order aware buffer. */
+	/** raw data in a byte order aware buffer. 
+	 * This is null as long as a lazy block has not been loaded. */
 	public CDataReadWriteAccess data;
 	
+	/** File offset of the data of this block or -1 if the block 
+	 * was not read from a file. */
+	long dataOffset = -1;
+	
+	/** loader of the data of a lazy block or source of a block read from a file. */
+	private BlockLoader loader;
+	
+	/** true, if the data was modified since it was read or written. */
+	private boolean dirty;
+	
+	/** true, if the block must not be modified (see {@link #setReadOnly(boolean)}). */
+	private boolean readOnly;
+	
 	
 	public Block(BlockHeader header, CDataReadWriteAccess data) {
 		this.header = header;
 		this.data = data;
 	}
 	
+	public Block(BlockHeader header, CDataReadWriteAccess data, long dataOffset) {
+		this(header, data);
+		this.dataOffset = dataOffset;
+	}
+	
+	/**
+	 * Creates a block read from a file.
+	 * @param source Loader of the file, which allows to identify the file 
+	 *        the block was read from (see {@link #isStoredIn(CDataReadWriteAccess)}).
+	 */
+	public Block(BlockHeader header, CDataReadWriteAccess data, BlockLoader source, long dataOffset) {
+		this(header, data, dataOffset);
+		this.loader = source;
+	}
+	
+	/**
+	 * Creates a lazy block. Its data will be loaded through the given 
+	 * loader on first access.
+	 */
+	public Block(BlockHeader header, BlockLoader loader, long dataOffset) {
+		this.header = header;
+		this.loader = loader;
+		this.dataOffset = dataOffset;
+	}
+	
 	
 	Block() {}
 
@@ -43,12 +83,95 @@ public class Block implements Comparable<Long> {
 	}
 
 	private void offset(long address) throws IOException {
+		if (data == null) load();
 		data.offset(address - header.address);
 	}
 
+	private void modify(long address) throws IOException {
+		if (readOnly) throw new IOException("block is read only (see OpenOptions.setReadOnly).");
+		offset(address);
+		dirty = true;
+	}
+
+	/**
+	 * Loads the data of a lazy block, if not done yet.
+	 */
+	public void load() throws IOException {
+		if (data == null) {
+			data = loader.load(this);
+		}
+	}
+	
+	/**
+	 * @return false if this is a lazy block which has not been loaded yet.
+	 */
+	public boolean isLoaded() {
+		return data != null;
+	}
+	
+	/**
+	 * @return File offset of the data of this block or -1 if the block
+	 * was not read from a file.
+	 */
+	public long getDataOffset() {
+		return dataOffset;
+	}
+
+	/**
+	 * @return true, if data or header of this block have been modified 
+	 * since it was read from or written to its file.
+	 */
+	public boolean isDirty() {
+		return dirty || header.modified;
+	}
+	
+	/**
+	 * Marks the block as modified. This is required only after
+	 * modifying {@link #data} directly, because all write methods
+	 * of the block mark it as modified already.
+	 */
+	public void setDirty() {
+		dirty = true;
+	}
+	
+	/**
+	 * @return true, if all write methods of this block are rejected.
+	 */
+	public boolean isReadOnly() {
+		return readOnly;
+	}
+	
+	/**
+	 * Rejects all write methods of this block (including {@link #copy(long, Block, long, int)})
+	 * with an IOException. Blocks of a {@link BlockTable} are marked through
+	 * {@link BlockTable#setReadOnly(boolean)}.
+	 */
+	public void setReadOnly(boolean readOnly) {
+		this.readOnly = readOnly;
+	}
+	
+	/**
+	 * @return true, if this block was read from or written to the file 
+	 * accessed by the given io at {@link #getDataOffset()}.
+	 */
+	public boolean isStoredIn(CDataReadWriteAccess io) {
+		return loader != null && dataOffset >= 0 && loader.isSource(io);
+	}
+	
+	/**
+	 * Declares that header and data of this block have been written
+	 * to the given file offset in the file of the given loader.
+	 * Clears the modification state (see {@link #isDirty()}).
+	 */
+	public void stored(BlockLoader source, long dataOffset) {
+		this.loader = source;
+		this.dataOffset = dataOffset;
+		this.dirty = false;
+		this.header.modified = false;
+	}
 
 	public void close() throws IOException {
-		data.close();
+		if (data != null) data.close();
 	}
 
 	public boolean readBoolean(long address) throws IOException {
@@ -57,7 +180,7 @@ public class Block implements Comparable<Long> {
 	}
 
 	public void writeBoolean(long address, boolean value) throws IOException {
-		offset(address);
+		modify(address);
 		data.writeBoolean(value);
 	}
 
@@ -67,7 +190,7 @@ public class Block implements Comparable<Long> {
 	}
 
 	public void writeByte(long address, byte value) throws IOException {
-		offset(address);
+		modify(address);
 		data.writeByte(value);
 	}
 
@@ -77,7 +200,7 @@ public class Block implements Comparable<Long> {
 	}
 
 	public void writeShort(long address, short value) throws IOException {
-		offset(address);
+		modify(address);
 		data.writeShort(value);
 	}
 
@@ -87,7 +210,7 @@ public class Block implements Comparable<Long> {
 	}
 
 	public void writeInt(long address, int value) throws IOException {
-		offset(address);
+		modify(address);
 		data.writeInt(value);
 	}
 
@@ -97,7 +220,7 @@ public class Block implements Comparable<Long> {
 	}
 
 	public void writeLong(long address, long value) throws IOException {
-		offset(address);
+		modify(address);
 		data.writeLong(value);
 	}
 
@@ -107,7 +230,7 @@ public class Block implements Comparable<Long> {
 	}
 
 	public void writeInt64(long address, long value) throws IOException {
-		offset(address);
+		modify(address);
 		data.writeInt64(value);
 	}
 
@@ -117,7 +240,7 @@ public class Block implements Comparable<Long> {
 	}
 
 	public void writeFloat(long address, float value) throws IOException {
-		offset(address);
+		modify(address);
 		data.writeFloat(value);
 	}
 
@@ -127,7 +250,7 @@ public class Block implements Comparable<Long> {
 	}
 
 	public void writeDouble(long address, double value) throws IOException {
-		offset(address);
+		modify(address);
 		data.writeDouble(value);
 	}
 
@@ -137,7 +260,7 @@ public class Block implements Comparable<Long> {
 	}
 
 	public void writeFully(long address, byte[] b) throws IOException {
-		offset(address);
+		modify(address);
 		data.writeFully(b);
 	}
 
@@ -147,7 +270,7 @@ public class Block implements Comparable<Long> {
 	}
 
 	public void writeFully(long address, byte[] b, int off, int len) throws IOException {
-		offset(address);
+		modify(address);
 		data.writeFully(b, off, len);
 	}
 
@@ -161,7 +284,7 @@ public class Block implements Comparable<Long> {
 	}
 
 	public void writeFully(long address, short[] b, int off, int len) throws IOException {
-		offset(address);
+		modify(address);
 		data.writeFully(b, off, len);
 	}
 
@@ -171,7 +294,7 @@ public class Block implements Comparable<Long> {
 	}
 
 	public void writeFully(long address, int[] b, int off, int len) throws IOException {
-		offset(address);
+		modify(address);
 		data.writeFully(b, off, len);
 	}
 
@@ -181,7 +304,7 @@ public class Block implements Comparable<Long> {
 	}
 
 	public void writeFully(long address, long[] b, int off, int len) throws IOException {
-		offset(address);
+		modify(address);
 		data.writeFully(b, off, len);
 	}
 
@@ -191,7 +314,7 @@ public class Block implements Comparable<Long> {
 	}
 
 	public void writeFullyInt64(long address, long[] b, int off, int len) throws IOException {
-		offset(address);
+		modify(address);
 		data.writeFullyInt64(b, off, len);
 	}
 
@@ -201,7 +324,7 @@ public class Block implements Comparable<Long> {
 	}
 
 	public void writeFully(long address, float[] b, int off, int len) throws IOException {
-		offset(address);
+		modify(address);
 		data.writeFully(b, off, len);
 	}
 
@@ -211,19 +334,71 @@ public class Block implements Comparable<Long> {
 	}
 
 	public void writeFully(long address, double[] b, int off, int len) throws IOException {
-		offset(address);
+		modify(address);
 		data.writeFully(b, off, len);
 	}
 
 	public ByteOrder getByteOrder() {
+		try {
+			load();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
 		return data.getByteOrder();
 	}
 
+	/**
+	 * Copies size bytes from the given address in the source block 
+	 * to the given address in this block. Data is copied between 
+	 * the underlying buffers without intermediate copies.
+	 */
+	public void copy(long targetAddress, Block source, long sourceAddress, int size) throws IOException {
+		source.load();
+		modify(targetAddress);
+		if (source == this && targetAddress < sourceAddress + size && sourceAddress < targetAddress + size) {
+			// overlapping ranges
+			byte[] buffer = new byte[size];
+			readFully(sourceAddress, buffer);
+			writeFully(targetAddress, buffer);
+		} else {
+			source.data.transferTo(sourceAddress - source.header.address, size, data);
+		}
+	}
+
+	/**
+	 * Writes header and data of this block to the current offset of the given io.
+	 * <p>
+	 * Data is transferred the cheapest way possible: Lazy blocks, 
+	 * which have not been loaded yet, are transferred from the file 
+	 * they were read from (e.g. by {@link java.nio.channels.FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}).
+	 * In-memory and mapped data is written directly from its buffer.
+	 * Blocks which have not been modified and stay at their location 
+	 * in the file are skipped (see {@link #isDirty()}).
+	 * </p>
+	 */
 	public void flush(CDataReadWriteAccess io) throws IOException {
+		long headerSize = BlockHeader.getHeaderSize(io.getPointerSize());
+		if (!isDirty() && isStoredIn(io) && io.offset() + headerSize == dataOffset) {
+			// header and data on disk are up-to-date and stay where they are.
+			io.skip(headerSize + header.size);
+			return;
+		}
+		if (data == null) {
+			if (loader.isSource(io)) {
+				// data gets displaced or rewritten in the same file
+				load();
+			} else {
+				// copy from file to file
+				header.write(io);
+				loader.transfer(this, io);
+				return;
+			}
+		}
+		
 		if (data instanceof CBufferReadWrite) {
-			// in-memory buffer
+			// in-memory or mapped buffer
 			header.write(io);
-			io.writeFully(((CBufferReadWrite)data).getBytes());
+			io.writeFully(((CBufferReadWrite)data).view());
 		} else if (io == data) {
 			// data io is direct file access (data on disk is up-to-date)
 			// Update the header only (just in case)
@@ -232,9 +407,7 @@ public class Block implements Comparable<Long> {
 		} else if (io.getByteOrder().equals(data.getByteOrder()) && io.getPointerSize() == data.getPointerSize()) {
 			// copy to another file
 			header.write(io);
-			byte[] buf = new byte[header.size];
-			data.readFully(buf);
-			io.writeFully(buf);
+			data.transferTo(data.offset(), header.size, io);
 		} else {
 			throw new IOException("error: attempt to write a block with different encoding to another file");
 		}
@@ -0,0 +1,103 @@
+package org.cakelab.blender.io.block;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+
+/**
+ * Small cache of the most recently used blocks of a {@link BlockTable}.
+ * <p>
+ * Traversals such as iterating a list or an array of structs resolve
+ * long runs of addresses into the same block. The cache is consulted
+ * before the search in the {@link BlockIndex} and keeps the last
+ * hit in front.
+ * </p>
+ * <p>
+ * A cache is confined to a single thread (see {@link BlockTable#getBlock(long)}).
+ * It gets cleared lazily, whenever the generation of the block table
+ * changes (i.e. when blocks have been removed). Hit and miss counters
+ * are written by the owning thread only, but can be read by any thread.
+ * </p>
+ */
+final class BlockCache {
+
+	static final int SIZE = 4;
+
+	private static final AtomicLongFieldUpdater<BlockCache> HITS = AtomicLongFieldUpdater.newUpdater(BlockCache.class, "hits");
+	private static final AtomicLongFieldUpdater<BlockCache> MISSES = AtomicLongFieldUpdater.newUpdater(BlockCache.class, "misses");
+
+	/** biased start addresses (see {@link BlockIndex#bias(long)}) */
+	private final long[] starts = new long[SIZE];
+	/** biased end addresses (exclusive) */
+	private final long[] ends = new long[SIZE];
+	private final Block[] blocks = new Block[SIZE];
+	private int count;
+	private int generation;
+
+	/**
+	 * Counters are updated with ordered writes, which are cheap for the
+	 * single writer and never observed partially by readers.
+	 */
+	private volatile long hits;
+	private volatile long misses;
+
+
+	/**
+	 * Returns the cached block which contains the given address or null.
+	 */
+	Block lookup(long address, int generation) {
+		if (this.generation != generation) {
+			clear();
+			this.generation = generation;
+		}
+		long key = BlockIndex.bias(address);
+		for (int i = 0; i < count; i++) {
+			if (key >= starts[i] && key < ends[i]) {
+				Block block = blocks[i];
+				if (i > 0) {
+					moveToFront(i, starts[i], ends[i], block);
+				}
+				HITS.lazySet(this, hits + 1);
+				return block;
+			}
+		}
+		MISSES.lazySet(this, misses + 1);
+		return null;
+	}
+
+	/**
+	 * Adds the given block as most recently used block.
+	 */
+	void put(Block block) {
+		long start = block.header.address;
+		if (count < SIZE) count++;
+		moveToFront(count-1, BlockIndex.bias(start), BlockIndex.bias(start + block.header.size), block);
+	}
+
+	private void moveToFront(int i, long start, long end, Block block) {
+		System.arraycopy(starts, 0, starts, 1, i);
+		System.arraycopy(ends, 0, ends, 1, i);
+		System.arraycopy(blocks, 0, blocks, 1, i);
+		starts[0] = start;
+		ends[0] = end;
+		blocks[0] = block;
+	}
+
+	/**
+	 * Drops all cached blocks. Counters are kept.
+	 */
+	void clear() {
+		for (int i = 0; i < count; i++) {
+			blocks[i] = null;
+		}
+		count = 0;
+	}
+
+	long getHits() {
+		return hits;
+	}
+
+	long getMisses() {
+		return misses;
+	}
+
+}
@@ -65,6 +65,9 @@ public class BlockHeader {
 	/* ************************************************ */
 	/*           END of BLOCK HEADER DATA               */
 	/* ************************************************ */
+
+	/** true, if the header was modified through its setters (see {@link Block#isDirty()}). */
+	boolean modified;
 	
 
 	public BlockHeader() {
@@ -122,6 +125,7 @@ public class BlockHeader {
 
 	public void setSdnaIndex(int sdnaIndex) {
 		this.sdnaIndex = sdnaIndex;
+		this.modified = true;
 	}
 
 	public int getCount() {
@@ -130,6 +134,7 @@ public class BlockHeader {
 
 	public void setCount(int count) {
 		this.count = count;
+		this.modified = true;
 	}
 
 	public String toString() {
@@ -0,0 +1,203 @@
+package org.cakelab.blender.io.block;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+
+/**
+ * Address index of the blocks of a {@link BlockTable}.
+ * <p>
+ * The index keeps start and end addresses of all blocks in parallel
+ * primitive arrays, sorted ascending by start address. Thus, lookups
+ * are a binary search on a <code>long[]</code> without any boxing or
+ * indirection through block headers.
+ * </p>
+ * <p>
+ * Addresses are unsigned. To compare them with signed arithmetics,
+ * they are stored with an offset of {@link Long#MIN_VALUE} (see {@link #bias(long)}),
+ * which maps unsigned order to signed order.
+ * </p>
+ * <p>
+ * The index is also the list of the sorted blocks (see 
+ * {@link BlockTable#getBlocksSorted()}). Modifications through the 
+ * list have to keep the blocks sorted by address.
+ * </p>
+ */
+final class BlockIndex extends AbstractList<Block> implements RandomAccess {
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	/** biased start addresses */
+	private long[] starts;
+	/** biased end addresses (exclusive) */
+	private long[] ends;
+	private Block[] blocks;
+	private int size;
+	/** number of blocks removed or replaced so far (invalidates block caches) */
+	private int removals;
+
+
+	BlockIndex() {
+		this(INITIAL_CAPACITY);
+	}
+
+	BlockIndex(int capacity) {
+		capacity = Math.max(capacity, INITIAL_CAPACITY);
+		starts = new long[capacity];
+		ends = new long[capacity];
+		blocks = new Block[capacity];
+	}
+
+	/**
+	 * Maps an unsigned address to a signed value with the same order.
+	 */
+	static long bias(long address) {
+		return address + Long.MIN_VALUE;
+	}
+
+	/**
+	 * Replaces the content of the index with the given blocks,
+	 * which have to be sorted ascending by address.
+	 */
+	void build(List<Block> sorted) {
+		size = 0;
+		ensureCapacity(sorted.size());
+		for (Block block : sorted) {
+			put(size++, block);
+		}
+	}
+
+	private void put(int i, Block block) {
+		long start = block.header.address;
+		starts[i] = bias(start);
+		ends[i] = bias(start + block.header.size);
+		blocks[i] = block;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > blocks.length) {
+			capacity = Math.max(capacity, blocks.length + (blocks.length >> 1));
+			starts = Arrays.copyOf(starts, capacity);
+			ends = Arrays.copyOf(ends, capacity);
+			blocks = Arrays.copyOf(blocks, capacity);
+		}
+	}
+
+	/**
+	 * Searches the block with the given start address.
+	 * @return Same as {@link Arrays#binarySearch(long[], long)}: index of the
+	 * block if found, otherwise <code>-(insertion point) - 1</code>.
+	 */
+	int search(long startAddress) {
+		return Arrays.binarySearch(starts, 0, size, bias(startAddress));
+	}
+
+	/**
+	 * Returns the block which contains the given address or null.
+	 */
+	Block lookup(long address) {
+		long key = bias(address);
+		int i = Arrays.binarySearch(starts, 0, size, key);
+		if (i >= 0) {
+			return blocks[i];
+		}
+		// if the address lies between two block start addresses, then
+		// -i-1 is the pos of the block with start address larger
+		// than address. But we need the block with a start address
+		// lower than address. Thus, -i-2
+		i = -i-2;
+		if (i >= 0 && key < ends[i]) {
+			return blocks[i];
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the block with the given start address or null.
+	 */
+	Block lookupExact(long startAddress) {
+		int i = search(startAddress);
+		return i >= 0 ? blocks[i] : null;
+	}
+
+	/**
+	 * Inserts the given block at its position in the index.
+	 */
+	void insert(Block block) {
+		int i = search(block.header.address);
+		assert(i < 0);
+		add(-i -1, block);
+	}
+
+	/**
+	 * Removes the block with the given start address.
+	 * @return removed block or null if not found.
+	 */
+	Block delete(long startAddress) {
+		int i = search(startAddress);
+		if (i < 0) return null;
+		return remove(i);
+	}
+
+	/**
+	 * @return number of blocks removed or replaced so far.
+	 */
+	int getRemovals() {
+		return removals;
+	}
+
+	@Override
+	public Block get(int index) {
+		rangeCheck(index);
+		return blocks[index];
+	}
+
+	@Override
+	public Block set(int index, Block block) {
+		rangeCheck(index);
+		Block previous = blocks[index];
+		put(index, block);
+		removals++;
+		return previous;
+	}
+
+	@Override
+	public void add(int index, Block block) {
+		if (index < 0 || index > size) throw new IndexOutOfBoundsException("index: " + index + ", size: " + size);
+		ensureCapacity(size + 1);
+		int moved = size - index;
+		System.arraycopy(starts, index, starts, index+1, moved);
+		System.arraycopy(ends, index, ends, index+1, moved);
+		System.arraycopy(blocks, index, blocks, index+1, moved);
+		put(index, block);
+		size++;
+		modCount++;
+	}
+
+	@Override
+	public Block remove(int index) {
+		rangeCheck(index);
+		Block block = blocks[index];
+		int moved = size - index - 1;
+		System.arraycopy(starts, index+1, starts, index, moved);
+		System.arraycopy(ends, index+1, ends, index, moved);
+		System.arraycopy(blocks, index+1, blocks, index, moved);
+		size--;
+		blocks[size] = null;
+		removals++;
+		modCount++;
+		return block;
+	}
+
+	private void rangeCheck(int index) {
+		if (index < 0 || index >= size) throw new IndexOutOfBoundsException("index: " + index + ", size: " + size);
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+}
@@ -151,9 +151,12 @@ public class BlockList implements List<Block> {
 	 * @param nextBlock
 	 */
 	public void insert(Block newBlock, Block nextBlock) {
+		size++;
 		if (nextBlock.prev != null) {
 			nextBlock.prev.next = newBlock;
 			newBlock.prev = nextBlock.prev;
+		} else {
+			first = newBlock;
 		}
 		newBlock.next = nextBlock;
 		nextBlock.prev = newBlock;
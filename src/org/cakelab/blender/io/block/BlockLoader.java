@@ -0,0 +1,33 @@
+package org.cakelab.blender.io.block;
+
+import java.io.IOException;
+
+import org.cakelab.blender.io.util.CDataReadWriteAccess;
+
+/**
+ * A block loader provides the data of blocks which are loaded 
+ * on demand (see {@link Block#load()}).
+ */
+public interface BlockLoader {
+
+	/**
+	 * Loads the body of the given block.
+	 * @param block Block with a valid header and data offset.
+	 * @return Access to the loaded data.
+	 */
+	CDataReadWriteAccess load(Block block) throws IOException;
+
+	/**
+	 * Writes the body of the given block to the current offset of the target 
+	 * without loading it into memory.
+	 * @param block Block with a valid header and data offset.
+	 * @param target Access with the same encoding as the source.
+	 * @throws IOException if the encoding of the target differs.
+	 */
+	void transfer(Block block, CDataReadWriteAccess target) throws IOException;
+
+	/**
+	 * Tests whether the given io is the source the data gets loaded from.
+	 */
+	boolean isSource(CDataReadWriteAccess io);
+}
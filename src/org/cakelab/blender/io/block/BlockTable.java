@@ -1,11 +1,9 @@
 package org.cakelab.blender.io.block;
 
-import java.lang.reflect.Field;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 
 import org.cakelab.blender.io.Encoding;
@@ -71,13 +69,13 @@ public class BlockTable {
 	public static final Comparator<? super Block> BLOCKS_ASCENDING_ADDRESS = new Comparator<Block>() {
 		@Override
 		public int compare(Block b1, Block b2) {
-			return b1.compareTo(b2.header.getAddress());
+			return UnsignedLong.compare(b1.header.address, b2.header.address);
 		}
 	};
 	
 	
-	/** list of blocks sorted by block.header.address */
-	private List<Block> sorted = new ArrayList<Block>();
+	/** blocks sorted by block.header.address */
+	private BlockIndex sorted = new BlockIndex();
 
 	/** encoding used by all blocks of this block table. */
 	private Encoding encoding;
@@ -98,6 +96,28 @@ public class BlockTable {
 	 */
 	private HashMap<Integer, BlockTable> offheapAreas;
 	
+	/** Caches of all threads which accessed this table (see {@link #clearCaches()}). */
+	private final List<BlockCache> caches = new ArrayList<BlockCache>();
+	
+	/** Thread confined cache of recently used blocks. */
+	private final ThreadLocal<BlockCache> cache = new ThreadLocal<BlockCache>() {
+		@Override
+		protected BlockCache initialValue() {
+			BlockCache c = new BlockCache();
+			synchronized(caches) {
+				caches.add(c);
+			}
+			return c;
+		}
+	};
+	
+	/** counters of all caches at the last {@link #resetCacheStatistics()} */
+	private long hitsBase;
+	private long missesBase;
+	
+	/** true, if blocks can neither be allocated, freed nor modified. */
+	private boolean readOnly;
+	
 	
 	/**
 	 * Instantiates a new block table with the given encoding.
@@ -118,10 +138,16 @@ public class BlockTable {
 	public BlockTable(Encoding encoding, List<Block> blocks, int[] offheapStructs) {
 		this(encoding);
 		
-		this.sorted.addAll(blocks);
-		Collections.sort(this.sorted, BLOCKS_ASCENDING_ADDRESS);
+		Block[] array = blocks.toArray(new Block[blocks.size()]);
+		Arrays.sort(array, BLOCKS_ASCENDING_ADDRESS);
 		
-		initOffheapAreas(offheapStructs);
+		List<Block> heap = initOffheapAreas(Arrays.asList(array), offheapStructs);
+		sorted.build(heap);
+		
+		// overlaps are only checked if offheap areas have been declared
+		if (offheapStructs != null && null == System.getProperty("org.cakelab.blender.NoChecks")) {
+			checkBlockOverlaps();
+		}
 
 		// SANITY CHECK HERE
 		// Check if the first (actual) address is reasonable
@@ -143,49 +169,77 @@ public class BlockTable {
 	/**
 	 * Creates offheap areas and moves all blocks of structs which are declared 
 	 * to be not in the heap address space to their respective offheap areas.
+	 * <p>
+	 * Blocks are partitioned in a single pass, which preserves their order.
+	 * </p>
+	 * @param sorted list of all blocks sorted by address.
 	 * @param offheap List of offheap areas.
+	 * @return sorted list of the remaining blocks on heap.
 	 */
-	private void initOffheapAreas(int[] offheap) {
-		if (offheap == null) return;
+	private List<Block> initOffheapAreas(List<Block> sorted, int[] offheap) {
+		if (offheap == null) return sorted;
 		
 		offheapAreas = new HashMap<Integer, BlockTable>(offheap.length);
+		
+		// lookup table: sdna index -> offheap area or -1
+		int maxSdna = -1;
 		for (int sdna : offheap) {
-			offheapAreas.put(sdna, new BlockTable(encoding));
+			maxSdna = Math.max(maxSdna, sdna);
 		}
-		for (Iterator<Block> it = sorted.iterator(); it.hasNext();) {
-			Block b = it.next();
-			for (int sdna : offheap) {
-				if (b.header.sdnaIndex == sdna) {
-					offheapAreas.get(sdna).add(b);
-					it.remove();
-					break;
-				}
+		int[] areaOf = new int[maxSdna + 1];
+		Arrays.fill(areaOf, -1);
+		ArrayList<List<Block>> areaBlocks = new ArrayList<List<Block>>(offheap.length);
+		for (int sdna : offheap) {
+			if (sdna < 0 || areaOf[sdna] >= 0) continue;
+			areaOf[sdna] = areaBlocks.size();
+			areaBlocks.add(new ArrayList<Block>());
+		}
+		
+		ArrayList<Block> heap = new ArrayList<Block>(sorted.size());
+		for (Block b : sorted) {
+			int sdna = b.header.sdnaIndex;
+			if (sdna >= 0 && sdna <= maxSdna && areaOf[sdna] >= 0) {
+				areaBlocks.get(areaOf[sdna]).add(b);
+			} else {
+				heap.add(b);
 			}
 		}
 		
-		if (null == System.getProperty("org.cakelab.blender.NoChecks")) {
-			checkBlockOverlaps();
+		for (int sdna = 0; sdna <= maxSdna; sdna++) {
+			if (areaOf[sdna] >= 0) {
+				BlockTable area = new BlockTable(encoding);
+				area.sorted.build(areaBlocks.get(areaOf[sdna]));
+				offheapAreas.put(sdna, area);
+			}
 		}
+		return heap;
 	}
 
 	/**
 	 * Method to check for overlapping blocks in heap address space for debugging purposes.
+	 * <p>
+	 * Blocks are checked in a single pass in ascending order of their addresses. 
+	 * Each block is checked against the block with the highest end address 
+	 * seen so far.
+	 * </p>
 	 */
 	private void checkBlockOverlaps() {
 		boolean valid = true;
 		
 		OverlappingBlocksException overlapping = new OverlappingBlocksException();
 		
+		Block widest = null;
+		long widestEnd = 0;
 		for (int i = 0; i < sorted.size(); i++) {
-			Block cur = sorted.get(i);
-			for (int j=i+1; j < sorted.size(); j++) {
-				Block b = sorted.get(j);
-				if (cur.contains(b.header.address)) {
-					overlapping.add(cur, b);
-					valid = false;
-				} else {
-					break;
-				}
+			Block b = sorted.get(i);
+			long end = b.header.address + b.header.size;
+			if (widest != null && UnsignedLong.lt(b.header.address, widestEnd)) {
+				overlapping.add(widest, b);
+				valid = false;
+			}
+			if (widest == null || UnsignedLong.gt(end, widestEnd)) {
+				widest = b;
+				widestEnd = end;
 			}
 		}
 		if (!valid) {
@@ -208,17 +262,7 @@ public class BlockTable {
 	/** returns the block which contains the data of the given address and type (struct or scalar).
 	 */
 	public Block getBlock(long address, Class<?> type) {
-		int sdnaIndex = -1;
-		Class<?> superClass = type.getSuperclass();
-		if (superClass != null && superClass.equals(CFacade.class)) {
-			try {
-				Field f = type.getDeclaredField("__DNA__SDNA_INDEX");
-				sdnaIndex = f.getInt(null);
-			} catch (NoSuchFieldException | SecurityException | IllegalArgumentException | IllegalAccessException e) {
-				throw new RuntimeException("internal error", e);
-			}
-		}
-		return getBlock(address, sdnaIndex);
+		return getBlock(address, CFacade.__io__sdnaIndex(type));
 	}
 	
 	/**
@@ -233,7 +277,7 @@ public class BlockTable {
 		if (offheapAreas != null && sdnaIndex >= 0) {
 			BlockTable t = offheapAreas.get(sdnaIndex);
 			if (t != null) {
-				return t.findBlock(sdnaIndex);
+				return t.findBlock(address);
 			}
 		}
 		return table.getBlock(address);
@@ -241,30 +285,17 @@ public class BlockTable {
 	
 	
 	/** Returns the block which contains the given address.
+	 * Recently used blocks are looked up in a thread confined
+	 * cache first, before searching the address index.
 	 */
 	protected Block getBlock(long address) {
 		if (address == 0) return null;
-		
-		Block block = null;
-		
-		int i = Collections.binarySearch(sorted, address);
-		if (i >= 0) {
-			block = sorted.get(i);
-		} else {
-			// if the address lies between two block start addresses, then 
-			// -i-1 is the pos of the block with start address larger
-			// than address. But we need the block with a start address
-			// lower than address. Thus, -i-2
-			i = -i-2;
-			if (i >= 0) {
-				Block b = sorted.get(i);
-				if (address < (b.header.getAddress() + b.header.getSize())) {
-					// block found
-					block = b;
-				}
-			}
+		BlockCache c = cache.get();
+		Block block = c.lookup(address, sorted.getRemovals());
+		if (block == null) {
+			block = sorted.lookup(address);
+			if (block != null) c.put(block);
 		}
-		
 		return block;
 	}
 
@@ -275,18 +306,14 @@ public class BlockTable {
 	 * @return The block associated with the given address or null if none was found.
 	 */
 	public Block findBlock(long startAddress) {
-		int i = Collections.binarySearch(sorted, startAddress);
-		Block block = null;
-		if (i >= 0) {
-			block = sorted.get(i);
-		}
-		return block;
+		return sorted.lookupExact(startAddress);
 	}
 	
 	/**
 	 * This method allocates memory and assigns it to a block with the given code.
 	 */
 	public Block allocate(Identifier blockCode, int size) {
+		checkReadOnly();
 		checkAllocator();
 		long address = allocator.alloc(size);
 
@@ -303,11 +330,7 @@ public class BlockTable {
 	 * Method to add a block to the ascending sorted list.
 	 */
 	protected void add(Block block) {
-		// insert block in list
-		int i = Collections.binarySearch(sorted, block.header.address);
-		assert(i < 0);
-		i = -i -1;
-		sorted.add(i, block);
+		sorted.insert(block);
 	}
 	
 	
@@ -345,7 +368,11 @@ public class BlockTable {
 	 * its allocated memory region (to be available for allocation again).
 	 */
 	public void free(Block block) {
-		BlockTable offheapArea = offheapAreas.get(block.header.sdnaIndex);
+		checkReadOnly();
+		BlockTable offheapArea = null;
+		if (offheapAreas != null) {
+			offheapArea = offheapAreas.get(block.header.sdnaIndex);
+		}
 		if (offheapArea != null) {
 			offheapArea.free(block);
 		} else {
@@ -357,12 +384,42 @@ public class BlockTable {
 			}
 			
 			// remove block from table
-			int i = Collections.binarySearch(sorted, block.header.address);
-			assert(i >= 0);
-			sorted.remove(i);
+			Block removed = sorted.delete(block.header.address);
+			assert(removed != null);
+			// caches of other threads drop the block on their next lookup
+			cache.get().clear();
+		}
+	}
+	
+	/**
+	 * @return true, if the table and its blocks cannot be modified.
+	 */
+	public boolean isReadOnly() {
+		return readOnly;
+	}
+	
+	/**
+	 * Marks this table, its offheap areas and all of their blocks as
+	 * read only (see {@link Block#setReadOnly(boolean)}). Allocating 
+	 * or freeing blocks of a read only table throws an 
+	 * {@link IllegalStateException}.
+	 */
+	public void setReadOnly(boolean readOnly) {
+		this.readOnly = readOnly;
+		for (Block block : sorted) {
+			block.setReadOnly(readOnly);
+		}
+		if (offheapAreas != null) {
+			for (BlockTable area : offheapAreas.values()) {
+				area.setReadOnly(readOnly);
+			}
 		}
 	}
 	
+	private void checkReadOnly() {
+		if (readOnly) throw new IllegalStateException("block table is read only (see OpenOptions.setReadOnly).");
+	}
+	
 	/**
 	 * Lazy initialisation of the allocator.
 	 * This method checks whether the allocator has been initialised.
@@ -371,9 +428,15 @@ public class BlockTable {
 	 */
 	private void checkAllocator() {
 		if (!allocatorInitialised) {
-			for (Block block : sorted) {
-				allocator.declareAllocated(block.header.address, block.header.size);
+			int size = sorted.size();
+			long[] addresses = new long[size];
+			long[] sizes = new long[size];
+			for (int i = 0; i < size; i++) {
+				BlockHeader header = sorted.get(i).header;
+				addresses[i] = header.address;
+				sizes[i] = header.size;
 			}
+			allocator.declareAllocated(addresses, sizes);
 			allocatorInitialised = true;
 		}
 	}
@@ -442,6 +505,59 @@ public class BlockTable {
 	}
 	
 
+	/**
+	 * Returns the number of address lookups, which have been served
+	 * by the block caches of all threads (see {@link #getBlock(long)}).
+	 * Counts of threads, which are still running, may be slightly outdated.
+	 */
+	public long getCacheHits() {
+		synchronized(caches) {
+			long hits = 0;
+			for (BlockCache c : caches) hits += c.getHits();
+			return hits - hitsBase;
+		}
+	}
+	
+	/**
+	 * Returns the number of address lookups, which required a 
+	 * search in the address index.
+	 */
+	public long getCacheMisses() {
+		synchronized(caches) {
+			long misses = 0;
+			for (BlockCache c : caches) misses += c.getMisses();
+			return misses - missesBase;
+		}
+	}
+	
+	/**
+	 * Resets hit and miss counters of all block caches. Counters of 
+	 * the threads are not modified, thus lookups may run concurrently.
+	 */
+	public void resetCacheStatistics() {
+		synchronized(caches) {
+			hitsBase += getCacheHits();
+			missesBase += getCacheMisses();
+		}
+	}
+	
+	/**
+	 * Drops the blocks held by the caches of all threads, which
+	 * accessed this table or its offheap areas, to release them 
+	 * once the table is no longer used (see {@link BlenderFile#close()}). 
+	 * Caches must not be in use concurrently.
+	 */
+	public void clearCaches() {
+		synchronized(caches) {
+			for (BlockCache c : caches) c.clear();
+		}
+		if (offheapAreas != null) {
+			for (BlockTable area : offheapAreas.values()) {
+				area.clearCaches();
+			}
+		}
+	}
+	
 	/** Returns the allocator used by this block table. 
 	 * <p>
 	 * <em>This allocator does not know about offheap areas.</em>
@@ -462,6 +578,13 @@ public class BlockTable {
 	 * in their original sequence in the file than refer
 	 * to {@link BlenderFile#getBlocks()}
 	 * </p>
+	 * <p>
+	 * The returned list is the address index of the block table.
+	 * Modifications of the list affect the block table and have to 
+	 * keep the blocks sorted by address. Preferably use 
+	 * {@link #allocate(Identifier, long)} and {@link #free(Block)} 
+	 * to add or remove blocks.
+	 * </p>
 	 */
 	public List<Block> getBlocksSorted() {
 		return sorted;
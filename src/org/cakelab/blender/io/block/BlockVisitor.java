@@ -0,0 +1,34 @@
+package org.cakelab.blender.io.block;
+
+import java.io.IOException;
+
+import org.cakelab.blender.io.BlockScanner;
+
+/**
+ * Callback interface to receive the blocks of a file one by one in 
+ * file order (see {@link BlockScanner}).
+ */
+public interface BlockVisitor {
+
+	/**
+	 * Called for each block header in file order.
+	 * 
+	 * @param header Header of the next block. The header is valid 
+	 *        only during this call and the following call to 
+	 *        {@link #visit(Block)}.
+	 * @return true, if the data of the block is required. In this case 
+	 *         {@link #visit(Block)} will be called with the block. 
+	 *         Otherwise the data of the block is skipped.
+	 */
+	boolean accept(BlockHeader header) throws IOException;
+	
+	/**
+	 * Called for each accepted block (see {@link #accept(BlockHeader)}).
+	 * 
+	 * @param block The block including its data. Block and data are 
+	 *        valid only during this call and must not be retained.
+	 * @return false to stop scanning.
+	 */
+	boolean visit(Block block) throws IOException;
+	
+}
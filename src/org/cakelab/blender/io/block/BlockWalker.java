@@ -0,0 +1,248 @@
+package org.cakelab.blender.io.block;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import org.cakelab.blender.metac.CField;
+import org.cakelab.blender.metac.CMetaModel;
+import org.cakelab.blender.metac.CStruct;
+import org.cakelab.blender.metac.CType;
+import org.cakelab.blender.metac.CType.CKind;
+
+/**
+ * Determines the blocks reachable from a set of root blocks by
+ * following pointers.
+ * <p>
+ * The walker interprets the data of a block according to the struct
+ * type given by the Struct DNA (see {@link CMetaModel}) and follows
+ * all pointers found in the struct (including pointers in embedded structs
+ * and arrays) to the blocks in the {@link BlockTable}. The type of the
+ * data of a block is determined by its header. Blocks of raw data
+ * (code DATA and sdna index 0) are interpreted by the type of the
+ * pointer which references them. A pointer on a pointer (e.g.
+ * <code>Material **mat</code>) references a block containing an
+ * array of pointers.
+ * </p>
+ * <p>
+ * Only blocks which contain pointers are read. Thus, in combination with
+ * {@link org.cakelab.blender.io.OpenOptions.BlockLoading#LAZY} only the
+ * data of reachable blocks with pointers gets loaded from the file.
+ * </p>
+ * <p>
+ * Each struct of type ID contains the pointers <code>next</code> and
+ * <code>prev</code>, which link all IDs of the same type (e.g. all objects).
+ * Following them would reach almost the entire file. Thus, they are not
+ * followed by default (see {@link #DEFAULT_FILTER}).
+ * </p>
+ */
+public class BlockWalker {
+
+	/**
+	 * Decides which pointer fields to follow.
+	 */
+	public interface Filter {
+		/**
+		 * @param struct Struct declaring the field.
+		 * @param field Field in struct.
+		 * @return true, if pointers in the given field (or in embedded structs
+		 *         and arrays of the field) shall be followed.
+		 */
+		boolean follow(CStruct struct, CField field);
+	}
+
+	/** Follows all pointers except the list of IDs (ID.next and ID.prev). */
+	public static final Filter DEFAULT_FILTER = new Filter() {
+		@Override
+		public boolean follow(CStruct struct, CField field) {
+			return !(struct.getSignature().equals("ID")
+					&& (field.getName().equals("next") || field.getName().equals("prev")));
+		}
+	};
+
+	/** Pointer found in the data of a struct. */
+	private static class PointerField {
+		/** offset of the pointer in the struct */
+		final int offset;
+		/** type referenced by the pointer */
+		final CType target;
+		PointerField(int offset, CType target) {
+			this.offset = offset;
+			this.target = target;
+		}
+	}
+
+	private static final PointerField[] NO_POINTERS = new PointerField[0];
+
+	private BlockTable blockTable;
+	private CMetaModel model;
+	private int addressWidth;
+	private Filter filter;
+
+	/** pointer fields per struct (by sdna index), determined on demand */
+	private PointerField[][] layouts;
+
+
+	public BlockWalker(BlockTable blockTable, CMetaModel model) {
+		this(blockTable, model, DEFAULT_FILTER);
+	}
+
+	public BlockWalker(BlockTable blockTable, CMetaModel model, Filter filter) {
+		this.blockTable = blockTable;
+		this.model = model;
+		this.filter = filter;
+		this.addressWidth = blockTable.getEncoding().getAddressWidth();
+		this.layouts = new PointerField[model.getStructs().size()][];
+	}
+
+	/**
+	 * @return All blocks reachable from the given root block including the root.
+	 */
+	public List<Block> reachable(Block root) throws IOException {
+		return reachable(Arrays.asList(root));
+	}
+
+	/**
+	 * @return All blocks reachable from the given root blocks including
+	 * the roots in breadth first order.
+	 */
+	public List<Block> reachable(Collection<Block> roots) throws IOException {
+		Walk walk = new Walk();
+		for (Block root : roots) {
+			walk.reached(root, null);
+		}
+		while (!walk.queue.isEmpty()) {
+			Target next = walk.queue.poll();
+			visit(next.block, next.referenced, walk);
+		}
+		return walk.result;
+	}
+
+	/** A reached block and the type of the pointer which referenced it. */
+	private static class Target {
+		final Block block;
+		final CType referenced;
+		Target(Block block, CType referenced) {
+			this.block = block;
+			this.referenced = referenced;
+		}
+	}
+
+	/** State of a call to {@link BlockWalker#reachable(Collection)}. */
+	private static class Walk {
+		final Set<Block> visited = Collections.newSetFromMap(new IdentityHashMap<Block, Boolean>());
+		final List<Block> result = new ArrayList<Block>();
+		final ArrayDeque<Target> queue = new ArrayDeque<Target>();
+
+		void reached(Block block, CType referenced) {
+			if (visited.add(block)) {
+				result.add(block);
+				queue.add(new Target(block, referenced));
+			}
+		}
+	}
+
+	/**
+	 * Follows all pointers in the given block.
+	 * @param referenced Type referenced by the pointer which lead to the block
+	 *        or null if unknown.
+	 */
+	private void visit(Block block, CType referenced, Walk walk) throws IOException {
+		BlockHeader header = block.header;
+		if (referenced != null && referenced.getKind() == CKind.TYPE_POINTER) {
+			// block contains an array of pointers
+			CType target = referenced.getReferencedType();
+			int count = header.size / addressWidth;
+			for (int i = 0; i < count; i++) {
+				follow(block, header.address + i * addressWidth, target, walk);
+			}
+			return;
+		}
+
+		CStruct struct = null;
+		boolean raw = header.sdnaIndex == 0 && header.code.equals(BlockCodes.ID_DATA);
+		if (!raw && header.sdnaIndex >= 0 && header.sdnaIndex < layouts.length) {
+			struct = model.getStruct(header.sdnaIndex);
+		} else if (referenced != null && referenced.getKind() == CKind.TYPE_STRUCT) {
+			struct = (CStruct) referenced;
+		}
+		if (struct == null) return;
+
+		PointerField[] fields = layout(struct);
+		int size = struct.sizeof(addressWidth);
+		if (fields.length == 0 || size == 0) return;
+		int count = header.size / size;
+		if (!raw) count = Math.min(count, header.count);
+
+		for (int i = 0; i < count; i++) {
+			long base = header.address + (long)i * size;
+			for (PointerField field : fields) {
+				follow(block, base + field.offset, field.target, walk);
+			}
+		}
+	}
+
+	private void follow(Block block, long address, CType target, Walk walk) throws IOException {
+		long pointer = block.readLong(address);
+		if (pointer == 0) return;
+		int sdnaIndex = target instanceof CStruct ? ((CStruct)target).getSdnaIndex() : -1;
+		Block targetBlock = blockTable.getBlock(pointer, sdnaIndex);
+		if (targetBlock != null) {
+			walk.reached(targetBlock, target);
+		}
+	}
+
+	/**
+	 * @return Pointer fields of the given struct.
+	 */
+	private PointerField[] layout(CStruct struct) {
+		int index = struct.getSdnaIndex();
+		PointerField[] fields = layouts[index];
+		if (fields == null) {
+			ArrayList<PointerField> list = new ArrayList<PointerField>();
+			collect(struct, 0, list);
+			fields = list.isEmpty() ? NO_POINTERS : list.toArray(new PointerField[list.size()]);
+			layouts[index] = fields;
+		}
+		return fields;
+	}
+
+	private void collect(CStruct struct, int offset, List<PointerField> list) {
+		for (CField field : struct.getFields()) {
+			CType type = field.getType();
+			if (filter.follow(struct, field)) {
+				collect(type, offset, list);
+			}
+			offset += type.sizeof(addressWidth);
+		}
+	}
+
+	private void collect(CType type, int offset, List<PointerField> list) {
+		switch (type.getKind()) {
+		case TYPE_POINTER:
+			list.add(new PointerField(offset, type.getReferencedType()));
+			break;
+		case TYPE_STRUCT:
+			collect((CStruct) type, offset, list);
+			break;
+		case TYPE_ARRAY:
+			CType component = type.getReferencedType();
+			if (component.getKind() == CKind.TYPE_SCALAR) break;
+			int size = component.sizeof(addressWidth);
+			for (int i = 0; i < type.getArrayLength(); i++) {
+				collect(component, offset + i * size, list);
+			}
+			break;
+		default:
+			// scalars, void and function pointers
+			break;
+		}
+	}
+
+}
@@ -12,11 +12,14 @@ import org.cakelab.blender.nio.UnsignedLong;
  * address for a new block. The allocator will not allocate memory.
  * </p>
  * <p>
- * The allocator implemented here uses a simple algorithm with a single 
- * linked list of allocated and free chunks. To find free chunks of 
- * appropriate size it uses the next fit algorithm. Neighbouring chunks
- * of the same type (either allocated or free) get merged to reduce the
- * amount of chunks in the list.
+ * The allocator implemented here keeps a list of allocated and free 
+ * chunks sorted by address, which is indexed by red black trees 
+ * (see {@link ChunkList}). Thus, finding the chunk at a given address 
+ * takes O(log n). To find free chunks of appropriate size it uses 
+ * the best fit algorithm on an index of free chunks sorted by size, 
+ * which takes O(log n) too. Neighbouring chunks of the same type 
+ * (either allocated or free) get merged to reduce the amount of 
+ * chunks in the list.
  * </p>
  * 
  * @author homac
@@ -25,11 +28,9 @@ import org.cakelab.blender.nio.UnsignedLong;
 public class Allocator {
 
 	ChunkList chunks;
-	ChunkIterator cursor;
 	
 	public Allocator(long heapBase, long heapSize) {
 		chunks = new ChunkList(new Chunk(heapBase, heapSize, FREE));
-		cursor = (ChunkIterator) chunks.iterator();
 	}
 	
 	/**
@@ -51,7 +52,31 @@ public class Allocator {
 		assert(chunk.contains(UnsignedLong.plus(address, size-1)));
 		assert(chunk.state == FREE);
 		chunk = chunks.split(chunk, address, size);
-		chunk.state = ALLOCATED;
+		chunks.setState(chunk, ALLOCATED);
+		tryMerge(chunk);
+	}
+
+	/**
+	 * Bulk version of {@link #declareAllocated(long, long)}, which
+	 * declares all given regions of memory to be allocated.
+	 * <p>
+	 * Regions have to be sorted ascending by address and must not overlap.
+	 * If nothing has been allocated yet, the layout of chunks is 
+	 * constructed in a single pass over the regions.
+	 * </p>
+	 * 
+	 * @param addresses start addresses of the regions
+	 * @param sizes sizes of the regions
+	 */
+	public void declareAllocated(long[] addresses, long[] sizes) {
+		assert(addresses.length == sizes.length);
+		if (chunks.head == chunks.tail && chunks.head.state == FREE) {
+			chunks.layout(addresses, sizes);
+		} else {
+			for (int i = 0; i < addresses.length; i++) {
+				declareAllocated(addresses[i], sizes[i]);
+			}
+		}
 	}
 
 	/** 
@@ -60,24 +85,16 @@ public class Allocator {
 	 * @return address of allocated area
 	 */
 	public long alloc(long size) {
-		long address = 0;
 		// Note: we don't need to care about issuing out of memory 
 		// exceptions, because the system will run out of memory 
 		// earlier, since we consider a memory space which is much 
 		// larger than system memory can actually be.
-		
-		do {
-			if (!cursor.hasNext()) {
-				cursor = (ChunkIterator) chunks.iterator();
-			}
-			Chunk chunk = cursor.next();
-			if (chunk.state == FREE && UnsignedLong.ge(chunk.size, size)) {
-				address = chunk.address;
-				chunk = chunks.split(chunk, chunk.address, size);
-				chunk.state = ALLOCATED;
-				tryMerge(chunk);
-			}
-		} while (address == 0);
+		Chunk chunk = chunks.findFree(size);
+		assert(chunk != null);
+		long address = chunk.address;
+		chunk = chunks.split(chunk, address, size);
+		chunks.setState(chunk, ALLOCATED);
+		tryMerge(chunk);
 		return address;
 	}
 	
@@ -90,7 +107,8 @@ public class Allocator {
 		assert(chunk.contains(UnsignedLong.plus(address, size-1)));
 		assert(chunk.state == ALLOCATED);
 		chunk = chunks.split(chunk, address, size);
-		chunk.state = FREE;
+		chunks.setState(chunk, FREE);
+		tryMerge(chunk);
 	}
 	
 	/**
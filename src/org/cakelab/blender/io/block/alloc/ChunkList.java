@@ -1,42 +1,167 @@
 package org.cakelab.blender.io.block.alloc;
 
+import static org.cakelab.blender.io.block.alloc.Chunk.State.ALLOCATED;
+import static org.cakelab.blender.io.block.alloc.Chunk.State.FREE;
+
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
+import org.cakelab.blender.io.block.alloc.Chunk.State;
 import org.cakelab.blender.nio.UnsignedLong;
 
 
+/**
+ * List of chunks sorted by address.
+ * <p>
+ * Chunks are linked in address order to iterate them and to 
+ * access neighbours in constant time. In addition, the list 
+ * maintains two red black trees ({@link TreeMap} and {@link TreeSet}):
+ * </p>
+ * <ul>
+ * <li>an address index to find the chunk containing an address in O(log n) and</li>
+ * <li>a free index, which contains free chunks only, sorted by size and address,
+ * to find the smallest free chunk of sufficient size in O(log n).</li>
+ * </ul>
+ * <p>
+ * Chunks have to be modified through the methods of this class
+ * (e.g. {@link #setState(Chunk, State)}) to keep the indices consistent.
+ * </p>
+ */
 public class ChunkList implements Iterable<Chunk>{
 
-	// TODO: ZZZ use red black tree instead of a list
+	private static final Comparator<Long> ADDRESS_ORDER = new Comparator<Long>() {
+		@Override
+		public int compare(Long a1, Long a2) {
+			return UnsignedLong.compare(a1, a2);
+		}
+	};
+	
+	private static final Comparator<Chunk> SIZE_ORDER = new Comparator<Chunk>() {
+		@Override
+		public int compare(Chunk c1, Chunk c2) {
+			int result = UnsignedLong.compare(c1.size, c2.size);
+			return result != 0 ? result : UnsignedLong.compare(c1.address, c2.address);
+		}
+	};
+	
 	Chunk head;
 	Chunk tail;
 	
+	/** all chunks by start address */
+	private TreeMap<Long, Chunk> addressIndex = new TreeMap<Long, Chunk>(ADDRESS_ORDER);
+	/** free chunks by size and address */
+	private TreeSet<Chunk> freeIndex = new TreeSet<Chunk>(SIZE_ORDER);
+	/** search key for the free index */
+	private Chunk probe = new Chunk(UnsignedLong.MIN_VALUE, 0, FREE);
+	
 	public ChunkList(Chunk head) {
 		this.head = this.tail = head;
+		index(head);
 	}
 	
 	
 	public Chunk find(long address) {
-		for (Chunk partition : this) {
-			if (partition.contains(address)) {
-				return partition;
-			}
+		Map.Entry<Long, Chunk> entry = addressIndex.floorEntry(address);
+		if (entry != null && entry.getValue().contains(address)) {
+			return entry.getValue();
 		}
 		return null;
 	}
 
+	/**
+	 * Searches the smallest free chunk with at least the given size.
+	 * If there are multiple chunks of the same size, the chunk
+	 * with the lowest address will be returned.
+	 * 
+	 * @param size
+	 * @return free chunk or null if there is none of sufficient size.
+	 */
+	public Chunk findFree(long size) {
+		probe.size = size;
+		return freeIndex.ceiling(probe);
+	}
+	
+	/**
+	 * Replaces the chunks of a list, which consists of a single free 
+	 * chunk, by the layout of allocated and free chunks resulting from
+	 * the given allocated areas. Areas have to be sorted ascending
+	 * by address and lie within the free chunk. Adjacent areas are
+	 * joined into a single allocated chunk.
+	 * 
+	 * @param addresses start addresses of the allocated areas
+	 * @param sizes sizes of the allocated areas
+	 */
+	void layout(long[] addresses, long[] sizes) {
+		assert(head == tail && head.state == FREE);
+		Chunk heap = head;
+		unindex(heap);
+		head = tail = null;
+		
+		long pos = heap.address;
+		for (int i = 0; i < addresses.length; i++) {
+			long address = addresses[i];
+			long end = UnsignedLong.plus(address, sizes[i]);
+			if (UnsignedLong.lt(address, pos)) {
+				// overlapping areas
+				address = pos;
+			}
+			if (UnsignedLong.le(end, address)) {
+				continue;
+			}
+			if (address != pos) {
+				append(new Chunk(pos, UnsignedLong.minus(address, pos), FREE));
+			}
+			long size = UnsignedLong.minus(end, address);
+			if (tail != null && tail.state == ALLOCATED) {
+				tail.size = UnsignedLong.plus(tail.size, size);
+			} else {
+				append(new Chunk(address, size, ALLOCATED));
+			}
+			pos = end;
+		}
+		long remaining = UnsignedLong.minus(heap.size, UnsignedLong.minus(pos, heap.address));
+		if (remaining != 0) {
+			append(new Chunk(pos, remaining, FREE));
+		}
+		
+		for (Chunk chunk = head; chunk != null; chunk = chunk.next) {
+			index(chunk);
+		}
+	}
+	
+	private void append(Chunk chunk) {
+		if (tail == null) {
+			head = tail = chunk;
+		} else {
+			link(tail, chunk);
+			tail = chunk;
+		}
+	}
+	
 	@Override
 	public Iterator<Chunk> iterator() {
 		return new ChunkIterator(this);
 	}
 
+	
+	public void setState(Chunk chunk, State state) {
+		if (chunk.state != state) {
+			unindex(chunk);
+			chunk.state = state;
+			index(chunk);
+		}
+	}
+	
 
 	public Chunk split(Chunk chunk, long address, long size) {
-		if (chunk.address < address) {
+		if (UnsignedLong.lt(chunk.address, address)) {
 			long addrDiff = UnsignedLong.minus(address, chunk.address);
 			Chunk newChunk = new Chunk(address, UnsignedLong.minus(chunk.size, addrDiff), chunk.state);
 			insertAfter(chunk, newChunk);
-			chunk.size = addrDiff;
+			resize(chunk, addrDiff);
 			chunk = newChunk;
 		}
 		
@@ -48,18 +173,30 @@ public class ChunkList implements Iterable<Chunk>{
 			long sizeDiff = UnsignedLong.minus(chunk.size, size);
 			Chunk newChunk = new Chunk(UnsignedLong.plus(address, size), sizeDiff, chunk.state);
 			insertAfter(chunk, newChunk);
-			chunk.size = size;
+			resize(chunk, size);
 		}
 		
 		return chunk;
 	}
 
 
+	private void resize(Chunk chunk, long size) {
+		if (chunk.state == FREE) {
+			freeIndex.remove(chunk);
+			chunk.size = size;
+			freeIndex.add(chunk);
+		} else {
+			chunk.size = size;
+		}
+	}
+
+
 	private void insertAfter(Chunk prev, Chunk next) {
 		if (prev == tail) tail = next;
 		next.next = prev.next;
 		if (next.next != null) next.next.prev = next;
 		link(prev, next);
+		index(next);
 	}
 
 
@@ -75,6 +212,8 @@ public class ChunkList implements Iterable<Chunk>{
 		// We always merge with the follower in case an 
 		// iterator points on one of the chunks. Just 
 		// improves performance.
+		unindex(prev);
+		unindex(next);
 		if (prev == head) head = next;
 		next.size = UnsignedLong.plus(prev.size, next.size);
 		next.address = prev.address;
@@ -82,6 +221,7 @@ public class ChunkList implements Iterable<Chunk>{
 		if (next.prev != null) {
 			next.prev.next = next;
 		}
+		index(next);
 		return next;
 	}
 
@@ -89,6 +229,7 @@ public class ChunkList implements Iterable<Chunk>{
 	public void remove(Chunk current) {
 		// list is supposed to be never empty
 		assert(head != tail);
+		unindex(current);
 		if (current.prev == null) {
 			head = current.next;
 			head.prev = null;
@@ -100,4 +241,16 @@ public class ChunkList implements Iterable<Chunk>{
 		}
 	}
 	
+	
+	private void index(Chunk chunk) {
+		addressIndex.put(chunk.address, chunk);
+		if (chunk.state == FREE) freeIndex.add(chunk);
+	}
+
+	
+	private void unindex(Chunk chunk) {
+		addressIndex.remove(chunk.address);
+		if (chunk.state == FREE) freeIndex.remove(chunk);
+	}
+	
 }
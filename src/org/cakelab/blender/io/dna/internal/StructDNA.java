@@ -210,6 +210,40 @@ public class StructDNA {
  		}
 	}
 
+	/**
+	 * Calculates the size of the Struct DNA as written by 
+	 * {@link #write(CDataReadWriteAccess)}. 
+	 * 
+	 * @param base Address (or file offset) the Struct DNA will be written to.
+	 *        Padding of the sections is relative to this address.
+	 * @return size in bytes including padding.
+	 */
+	public int sizeof(long base) {
+		long pos = base;
+		pos += SDNA.getData().length + NAME.getData().length + 4;
+		for (int i = 0; i < names_len; i++) {
+			pos += names[i].getBytes(CStringUtils.ASCII).length + 1;
+		}
+		pos = align4(pos);
+		pos += TYPE.getData().length + 4;
+		for (int i = 0; i < types_len; i++) {
+			pos += types[i].getBytes(CStringUtils.ASCII).length + 1;
+		}
+		pos = align4(pos);
+		pos += TLEN.getData().length + 2 * types_len;
+		pos = align4(pos);
+		pos += STRC.getData().length + 4;
+		for (int i = 0; i < structs_len; i++) {
+			pos += 4 + 4 * structs[i].fields_len;
+		}
+		return (int) (pos - base);
+	}
+
+	private static long align4(long pos) {
+		long misalignment = pos%4;
+		return misalignment > 0 ? pos + 4 - misalignment : pos;
+	}
+
 	@Override
 	public String toString() {
 		return "StructDNA {\n"
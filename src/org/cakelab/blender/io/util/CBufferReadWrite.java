@@ -1,12 +1,14 @@
 package org.cakelab.blender.io.util;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 
 public class CBufferReadWrite extends CDataReadWriteAccess {
 
-	private ByteBuffer rawData;
+	protected ByteBuffer rawData;
 	private long address;
 
 	public CBufferReadWrite(ByteBuffer rawData, long address, int pointerSize) {
@@ -74,8 +76,11 @@ public class CBufferReadWrite extends CDataReadWriteAccess {
 
 	@Override
 	public void padding(int alignment, boolean extend) throws IOException {
-		if (extend)	throw new IllegalArgumentException("cannot extend underlying buffer");
-		else padding(alignment);
+		long misalignment = (address + rawData.position())%alignment;
+		if (extend && misalignment > 0 && rawData.remaining() < alignment-misalignment) {
+			throw new IllegalArgumentException("cannot extend underlying buffer");
+		}
+		padding(alignment);
 	}
 
 	@Override
@@ -93,6 +98,89 @@ public class CBufferReadWrite extends CDataReadWriteAccess {
 		rawData.get(b, off, len);
 	}
 
+	@Override
+	public void writeFully(byte[] b, int off, int len) throws IOException {
+		rawData.put(b, off, len);
+	}
+
+	@Override
+	public void readFully(short[] b, int off, int len) throws IOException {
+		rawData.asShortBuffer().get(b, off, len);
+		rawData.position(rawData.position() + len * 2);
+	}
+
+	@Override
+	public void writeFully(short[] b, int off, int len) throws IOException {
+		rawData.asShortBuffer().put(b, off, len);
+		rawData.position(rawData.position() + len * 2);
+	}
+
+	@Override
+	public void readFully(int[] b, int off, int len) throws IOException {
+		rawData.asIntBuffer().get(b, off, len);
+		rawData.position(rawData.position() + len * 4);
+	}
+
+	@Override
+	public void writeFully(int[] b, int off, int len) throws IOException {
+		rawData.asIntBuffer().put(b, off, len);
+		rawData.position(rawData.position() + len * 4);
+	}
+
+	@Override
+	public void readFully(long[] b, int off, int len) throws IOException {
+		if (getPointerSize() == 8) {
+			readFullyInt64(b, off, len);
+		} else {
+			super.readFully(b, off, len);
+		}
+	}
+
+	@Override
+	public void writeFully(long[] b, int off, int len) throws IOException {
+		if (getPointerSize() == 8) {
+			writeFullyInt64(b, off, len);
+		} else {
+			super.writeFully(b, off, len);
+		}
+	}
+
+	@Override
+	public void readFullyInt64(long[] b, int off, int len) throws IOException {
+		rawData.asLongBuffer().get(b, off, len);
+		rawData.position(rawData.position() + len * 8);
+	}
+
+	@Override
+	public void writeFullyInt64(long[] b, int off, int len) throws IOException {
+		rawData.asLongBuffer().put(b, off, len);
+		rawData.position(rawData.position() + len * 8);
+	}
+
+	@Override
+	public void readFully(float[] b, int off, int len) throws IOException {
+		rawData.asFloatBuffer().get(b, off, len);
+		rawData.position(rawData.position() + len * 4);
+	}
+
+	@Override
+	public void writeFully(float[] b, int off, int len) throws IOException {
+		rawData.asFloatBuffer().put(b, off, len);
+		rawData.position(rawData.position() + len * 4);
+	}
+
+	@Override
+	public void readFully(double[] b, int off, int len) throws IOException {
+		rawData.asDoubleBuffer().get(b, off, len);
+		rawData.position(rawData.position() + len * 8);
+	}
+
+	@Override
+	public void writeFully(double[] b, int off, int len) throws IOException {
+		rawData.asDoubleBuffer().put(b, off, len);
+		rawData.position(rawData.position() + len * 8);
+	}
+
 	@Override
 	public void writeByte(int value) throws IOException {
 		rawData.put((byte) value);
@@ -128,6 +216,43 @@ public class CBufferReadWrite extends CDataReadWriteAccess {
 		return rawData.order();
 	}
 
+	/**
+	 * @return A view on the whole data (position 0, limit at the end)
+	 *         without copying it.
+	 */
+	public ByteBuffer view() {
+		ByteBuffer view = rawData.duplicate();
+		view.clear();
+		return view;
+	}
+
+	@Override
+	public void writeFully(ByteBuffer src) throws IOException {
+		rawData.put(src);
+	}
+
+	@Override
+	public void transferFrom(FileChannel src, long position, long count) throws IOException {
+		// read directly into the buffer
+		ByteBuffer target = rawData.duplicate();
+		target.limit((int) (target.position() + count));
+		while (target.hasRemaining()) {
+			int read = src.read(target, position);
+			if (read < 0) throw new EOFException();
+			position += read;
+		}
+		rawData.position(target.position());
+	}
+
+	@Override
+	public void transferTo(long offset, long count, CDataReadWriteAccess target) throws IOException {
+		ByteBuffer view = view();
+		view.limit((int) (offset + count));
+		view.position((int) offset);
+		target.writeFully(view);
+		rawData.position((int) (offset + count));
+	}
+
 	/**
 	 * provides access to the native data buffer.
 	 * 
@@ -1,10 +1,12 @@
 package org.cakelab.blender.io.util;
 
 import java.io.Closeable;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 
 import org.cakelab.blender.io.Encoding;
 import org.cakelab.blender.io.FileHeader.PointerSize;
@@ -31,12 +33,21 @@ public abstract class CDataReadWriteAccess implements Closeable {
 		return stream;
 	}
 
+	public static CDataReadWriteAccess create(FileChannel channel, Encoding encoding) throws IOException {
+		return new CFileChannelRW(channel, encoding.getByteOrder(), encoding.getAddressWidth());
+	}
+
 	public static CDataReadWriteAccess create(byte[] data, long baseAddress, Encoding encoding) {
 		ByteBuffer buffer = ByteBuffer.wrap(data);
 		buffer.order(encoding.getByteOrder());
 		return new CBufferReadWrite(buffer, baseAddress, encoding.getAddressWidth());
 	}
 
+	public static CDataReadWriteAccess create(MappedRegions regions, long offset, int size, long baseAddress, Encoding encoding) throws IOException {
+		ByteBuffer slice = regions.slice(offset, size, encoding.getByteOrder());
+		return new CMappedReadWrite(slice, baseAddress, encoding.getAddressWidth());
+	}
+
 	
 	public final int getPointerSize() {
 		return pointerSize;
@@ -236,6 +247,78 @@ public abstract class CDataReadWriteAccess implements Closeable {
 
 	public abstract ByteOrder getByteOrder();
 
+	/**
+	 * Writes buffered data to the underlying storage, if any.
+	 * @throws IOException
+	 */
+	public void flush() throws IOException {}
+
+	
+	/* ********************************************
+	 *     bulk transfer
+	 *     
+	 * Default implementations copy through a bounded 
+	 * temporary buffer. Subclasses override them to
+	 * avoid copies where the underlying storage allows.
+	 */
+	
+	/** Size of the temporary buffer used by the default implementations of bulk transfers. */
+	protected static final int TRANSFER_CHUNK_SIZE = 64 * 1024;
+	
+	/**
+	 * Writes the remaining bytes of the given buffer at the current offset.
+	 * The position of the buffer is advanced to its limit.
+	 */
+	public void writeFully(ByteBuffer src) throws IOException {
+		if (src.hasArray()) {
+			writeFully(src.array(), src.arrayOffset() + src.position(), src.remaining());
+			src.position(src.limit());
+		} else {
+			byte[] chunk = new byte[Math.min(src.remaining(), TRANSFER_CHUNK_SIZE)];
+			while (src.hasRemaining()) {
+				int n = Math.min(src.remaining(), chunk.length);
+				src.get(chunk, 0, n);
+				writeFully(chunk, 0, n);
+			}
+		}
+	}
+	
+	/**
+	 * Writes count bytes read from the given channel at the given position 
+	 * to the current offset.
+	 */
+	public void transferFrom(FileChannel src, long position, long count) throws IOException {
+		ByteBuffer chunk = ByteBuffer.allocate((int) Math.min(count, TRANSFER_CHUNK_SIZE));
+		while (count > 0) {
+			chunk.clear();
+			chunk.limit((int) Math.min(count, chunk.capacity()));
+			while (chunk.hasRemaining()) {
+				int read = src.read(chunk, position);
+				if (read < 0) throw new EOFException();
+				position += read;
+			}
+			chunk.flip();
+			count -= chunk.remaining();
+			writeFully(chunk);
+		}
+	}
+	
+	/**
+	 * Writes count bytes starting at the given offset of this 
+	 * instance to the current offset of the given target.
+	 * The offset of this instance is offset + count afterwards.
+	 */
+	public void transferTo(long offset, long count, CDataReadWriteAccess target) throws IOException {
+		offset(offset);
+		byte[] chunk = new byte[(int) Math.min(count, TRANSFER_CHUNK_SIZE)];
+		while (count > 0) {
+			int n = (int) Math.min(count, chunk.length);
+			readFully(chunk, 0, n);
+			target.writeFully(chunk, 0, n);
+			count -= n;
+		}
+	}
+
 	
 
 }
@@ -0,0 +1,580 @@
+package org.cakelab.blender.io.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Buffered read and write access to a file through a {@link FileChannel}.
+ * <p>
+ * This class supersedes {@link LittleEndianFileRW} and {@link BigEndianCFileRW},
+ * which access the file through per value calls on a {@link java.io.RandomAccessFile}.
+ * Data is transferred between the file and a reusable direct buffer, which
+ * decodes/encodes values in the byte order of the file. Arrays of scalars
+ * are transferred in bulk through views on the buffer (e.g.
+ * {@link ByteBuffer#asFloatBuffer()}). Large byte arrays are transferred
+ * directly between the channel and the array.
+ * </p>
+ * <p>
+ * The buffer covers a window of the file starting at {@link #bufferStart}.
+ * Modified data in the window gets written to the file when the window
+ * moves, on {@link #flush()} and on {@link #close()}.
+ * </p>
+ */
+public class CFileChannelRW extends CDataReadWriteAccess {
+
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+	private FileChannel channel;
+
+	/** window on the file */
+	private ByteBuffer buffer;
+	/** file offset of the first byte in the buffer */
+	private long bufferStart;
+	/** number of bytes in the buffer which are valid (i.e. either read or written). */
+	private int valid;
+	/** range of modified bytes in the buffer, which have not been written yet. */
+	private int dirtyStart;
+	private int dirtyEnd;
+	/** size of the file including data in the buffer */
+	private long size;
+
+
+	public CFileChannelRW(FileChannel channel, ByteOrder byteOrder, int pointerSize) throws IOException {
+		this(channel, byteOrder, pointerSize, DEFAULT_BUFFER_SIZE);
+	}
+
+	public CFileChannelRW(FileChannel channel, ByteOrder byteOrder, int pointerSize, int bufferSize) throws IOException {
+		super(pointerSize);
+		this.channel = channel;
+		this.buffer = ByteBuffer.allocateDirect(bufferSize);
+		this.buffer.order(byteOrder);
+		this.bufferStart = channel.position();
+		this.size = channel.size();
+	}
+
+	/**
+	 * @return The channel used by this instance. Call {@link #flush()}
+	 * before accessing it directly.
+	 */
+	public FileChannel getChannel() {
+		return channel;
+	}
+
+	/**
+	 * Writes modified data in the buffer to the file.
+	 */
+	@Override
+	public void flush() throws IOException {
+		if (dirtyStart < dirtyEnd) {
+			ByteBuffer dirty = buffer.duplicate();
+			dirty.limit(dirtyEnd);
+			dirty.position(dirtyStart);
+			long offset = bufferStart + dirtyStart;
+			while (dirty.hasRemaining()) {
+				offset += channel.write(dirty, offset);
+			}
+			dirtyStart = dirtyEnd = 0;
+		}
+	}
+
+	/**
+	 * Moves the buffer to the given offset with no valid data.
+	 */
+	private void rebase(long offset) throws IOException {
+		flush();
+		bufferStart = offset;
+		valid = 0;
+		buffer.clear();
+	}
+
+	/**
+	 * Makes sure that the next n bytes are available in the buffer.
+	 */
+	private void ensureReadable(int n) throws IOException {
+		if (buffer.position() + n > valid) {
+			rebase(offset());
+			while (valid < n) {
+				buffer.limit(buffer.capacity());
+				buffer.position(valid);
+				int read = channel.read(buffer, bufferStart + valid);
+				if (read < 0) break;
+				valid += read;
+			}
+			buffer.position(0);
+			buffer.limit(buffer.capacity());
+			if (valid < n) throw new EOFException();
+		}
+	}
+
+	/**
+	 * Makes sure that the next n bytes fit into the buffer.
+	 */
+	private void ensureWritable(int n) throws IOException {
+		if (buffer.position() + n > buffer.capacity()) {
+			rebase(offset());
+		}
+	}
+
+	/**
+	 * Marks the next n bytes as modified and has to be called before writing them.
+	 */
+	private void markDirty(int n) {
+		int start = buffer.position();
+		int end = start + n;
+		if (dirtyStart == dirtyEnd) {
+			dirtyStart = start;
+			dirtyEnd = end;
+		} else {
+			dirtyStart = Math.min(dirtyStart, start);
+			dirtyEnd = Math.max(dirtyEnd, end);
+		}
+		valid = Math.max(valid, end);
+		size = Math.max(size, bufferStart + end);
+	}
+
+	@Override
+	public byte readByte() throws IOException {
+		ensureReadable(1);
+		return buffer.get();
+	}
+
+	@Override
+	public void writeByte(int value) throws IOException {
+		ensureWritable(1);
+		markDirty(1);
+		buffer.put((byte) value);
+	}
+
+	@Override
+	public short readShort() throws IOException {
+		ensureReadable(2);
+		return buffer.getShort();
+	}
+
+	@Override
+	public void writeShort(short value) throws IOException {
+		ensureWritable(2);
+		markDirty(2);
+		buffer.putShort(value);
+	}
+
+	@Override
+	public int readInt() throws IOException {
+		ensureReadable(4);
+		return buffer.getInt();
+	}
+
+	@Override
+	public void writeInt(int value) throws IOException {
+		ensureWritable(4);
+		markDirty(4);
+		buffer.putInt(value);
+	}
+
+	@Override
+	public long readInt64() throws IOException {
+		ensureReadable(8);
+		return buffer.getLong();
+	}
+
+	@Override
+	public void writeInt64(long value) throws IOException {
+		ensureWritable(8);
+		markDirty(8);
+		buffer.putLong(value);
+	}
+
+	@Override
+	public float readFloat() throws IOException {
+		ensureReadable(4);
+		return buffer.getFloat();
+	}
+
+	@Override
+	public void writeFloat(float value) throws IOException {
+		ensureWritable(4);
+		markDirty(4);
+		buffer.putFloat(value);
+	}
+
+	@Override
+	public double readDouble() throws IOException {
+		ensureReadable(8);
+		return buffer.getDouble();
+	}
+
+	@Override
+	public void writeDouble(double value) throws IOException {
+		ensureWritable(8);
+		markDirty(8);
+		buffer.putDouble(value);
+	}
+
+	@Override
+	public void readFully(byte[] b, int off, int len) throws IOException {
+		if (len >= buffer.capacity()) {
+			// bypass the buffer
+			long offset = offset();
+			rebase(offset);
+			ByteBuffer target = ByteBuffer.wrap(b, off, len);
+			while (target.hasRemaining()) {
+				int read = channel.read(target, offset);
+				if (read < 0) throw new EOFException();
+				offset += read;
+			}
+			bufferStart = offset;
+		} else {
+			ensureReadable(len);
+			buffer.get(b, off, len);
+		}
+	}
+
+	@Override
+	public void writeFully(byte[] b, int off, int len) throws IOException {
+		if (len >= buffer.capacity()) {
+			writeDirect(ByteBuffer.wrap(b, off, len));
+		} else {
+			ensureWritable(len);
+			markDirty(len);
+			buffer.put(b, off, len);
+		}
+	}
+
+	@Override
+	public void writeFully(ByteBuffer src) throws IOException {
+		int len = src.remaining();
+		if (len >= buffer.capacity()) {
+			writeDirect(src);
+		} else {
+			ensureWritable(len);
+			markDirty(len);
+			buffer.put(src);
+		}
+	}
+
+	/**
+	 * Writes the given data to the current offset bypassing the buffer.
+	 * Modified data in the buffer, which directly precedes the current
+	 * offset (e.g. a block header), is written along with it in one
+	 * gathering write.
+	 */
+	private void writeDirect(ByteBuffer src) throws IOException {
+		long offset = offset();
+		long end = offset + src.remaining();
+		if (dirtyStart < dirtyEnd && bufferStart + dirtyEnd == offset) {
+			ByteBuffer dirty = buffer.duplicate();
+			dirty.limit(dirtyEnd);
+			dirty.position(dirtyStart);
+			ByteBuffer[] srcs = new ByteBuffer[]{dirty, src};
+			channel.position(bufferStart + dirtyStart);
+			while (src.hasRemaining()) {
+				channel.write(srcs);
+			}
+			dirtyStart = dirtyEnd = 0;
+		}
+		rebase(offset);
+		while (src.hasRemaining()) {
+			offset += channel.write(src, offset);
+		}
+		bufferStart = end;
+		size = Math.max(size, end);
+	}
+
+	/**
+	 * Replaces the buffer by a buffer of the given capacity (e.g. to 
+	 * use a larger buffer while writing large amounts of data).
+	 * Modified data gets written to the file.
+	 */
+	public void setBufferSize(int capacity) throws IOException {
+		if (capacity != buffer.capacity()) {
+			rebase(offset());
+			ByteOrder byteOrder = buffer.order();
+			buffer = ByteBuffer.allocateDirect(capacity);
+			buffer.order(byteOrder);
+		}
+	}
+
+	/**
+	 * @return Capacity of the buffer.
+	 */
+	public int getBufferSize() {
+		return buffer.capacity();
+	}
+
+	/**
+	 * Large amounts of data are transferred between the channels 
+	 * by the operating system (see {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)})
+	 * without passing through the JVM.
+	 */
+	@Override
+	public void transferFrom(FileChannel src, long position, long count) throws IOException {
+		if (count >= buffer.capacity()) {
+			long offset = offset();
+			rebase(offset);
+			channel.position(offset);
+			long end = position + count;
+			while (position < end) {
+				long transferred = src.transferTo(position, end - position, channel);
+				if (transferred <= 0) throw new EOFException();
+				position += transferred;
+			}
+			bufferStart = offset + count;
+			size = Math.max(size, bufferStart);
+		} else {
+			// read directly into the buffer
+			int len = (int) count;
+			ensureWritable(len);
+			markDirty(len);
+			ByteBuffer target = buffer.duplicate();
+			target.limit(target.position() + len);
+			while (target.hasRemaining()) {
+				int read = src.read(target, position);
+				if (read < 0) throw new EOFException();
+				position += read;
+			}
+			buffer.position(target.position());
+		}
+	}
+
+	@Override
+	public void transferTo(long offset, long count, CDataReadWriteAccess target) throws IOException {
+		if (count < buffer.capacity()) {
+			// small amounts of data are read through the buffer,
+			// which serves subsequent transfers of adjacent data.
+			offset(offset);
+			int len = (int) count;
+			ensureReadable(len);
+			ByteBuffer src = buffer.duplicate();
+			src.limit(src.position() + len);
+			target.writeFully(src);
+			buffer.position(src.limit());
+		} else {
+			flush();
+			target.transferFrom(channel, offset, count);
+			offset(offset + count);
+		}
+	}
+
+	/**
+	 * Number of elements of the given size to be transferred in one
+	 * chunk through the buffer.
+	 */
+	private int chunk(int remaining, int elemSize) {
+		return Math.min(remaining, buffer.capacity() / elemSize);
+	}
+
+	@Override
+	public void readFully(short[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			int n = chunk(len, 2);
+			ensureReadable(n * 2);
+			buffer.asShortBuffer().get(b, off, n);
+			buffer.position(buffer.position() + n * 2);
+			off += n;
+			len -= n;
+		}
+	}
+
+	@Override
+	public void writeFully(short[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			int n = chunk(len, 2);
+			ensureWritable(n * 2);
+			markDirty(n * 2);
+			buffer.asShortBuffer().put(b, off, n);
+			buffer.position(buffer.position() + n * 2);
+			off += n;
+			len -= n;
+		}
+	}
+
+	@Override
+	public void readFully(int[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			int n = chunk(len, 4);
+			ensureReadable(n * 4);
+			buffer.asIntBuffer().get(b, off, n);
+			buffer.position(buffer.position() + n * 4);
+			off += n;
+			len -= n;
+		}
+	}
+
+	@Override
+	public void writeFully(int[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			int n = chunk(len, 4);
+			ensureWritable(n * 4);
+			markDirty(n * 4);
+			buffer.asIntBuffer().put(b, off, n);
+			buffer.position(buffer.position() + n * 4);
+			off += n;
+			len -= n;
+		}
+	}
+
+	@Override
+	public void readFully(long[] b, int off, int len) throws IOException {
+		if (getPointerSize() == 8) {
+			readFullyInt64(b, off, len);
+		} else {
+			super.readFully(b, off, len);
+		}
+	}
+
+	@Override
+	public void writeFully(long[] b, int off, int len) throws IOException {
+		if (getPointerSize() == 8) {
+			writeFullyInt64(b, off, len);
+		} else {
+			super.writeFully(b, off, len);
+		}
+	}
+
+	@Override
+	public void readFullyInt64(long[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			int n = chunk(len, 8);
+			ensureReadable(n * 8);
+			buffer.asLongBuffer().get(b, off, n);
+			buffer.position(buffer.position() + n * 8);
+			off += n;
+			len -= n;
+		}
+	}
+
+	@Override
+	public void writeFullyInt64(long[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			int n = chunk(len, 8);
+			ensureWritable(n * 8);
+			markDirty(n * 8);
+			buffer.asLongBuffer().put(b, off, n);
+			buffer.position(buffer.position() + n * 8);
+			off += n;
+			len -= n;
+		}
+	}
+
+	@Override
+	public void readFully(float[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			int n = chunk(len, 4);
+			ensureReadable(n * 4);
+			buffer.asFloatBuffer().get(b, off, n);
+			buffer.position(buffer.position() + n * 4);
+			off += n;
+			len -= n;
+		}
+	}
+
+	@Override
+	public void writeFully(float[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			int n = chunk(len, 4);
+			ensureWritable(n * 4);
+			markDirty(n * 4);
+			buffer.asFloatBuffer().put(b, off, n);
+			buffer.position(buffer.position() + n * 4);
+			off += n;
+			len -= n;
+		}
+	}
+
+	@Override
+	public void readFully(double[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			int n = chunk(len, 8);
+			ensureReadable(n * 8);
+			buffer.asDoubleBuffer().get(b, off, n);
+			buffer.position(buffer.position() + n * 8);
+			off += n;
+			len -= n;
+		}
+	}
+
+	@Override
+	public void writeFully(double[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			int n = chunk(len, 8);
+			ensureWritable(n * 8);
+			markDirty(n * 8);
+			buffer.asDoubleBuffer().put(b, off, n);
+			buffer.position(buffer.position() + n * 8);
+			off += n;
+			len -= n;
+		}
+	}
+
+	@Override
+	public void padding(int alignment) throws IOException {
+		padding(alignment, false);
+	}
+
+	@Override
+	public void padding(int alignment, boolean extend) throws IOException {
+		long pos = offset();
+		long misalignment = pos%alignment;
+		if (misalignment > 0) {
+			long correction = alignment-misalignment;
+			if (pos + correction <= size) {
+				skip(correction);
+			} else if (extend) {
+				offset(pos + (correction-1));
+				writeByte(0);
+			} else {
+				throw new IOException("padding beyond file boundary without permission.");
+			}
+		}
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		if (n <= 0) {
+			return 0;
+		}
+		long pos = offset();
+		long newpos = pos + n;
+		if (newpos > size) throw new IOException("Skipping beyond file boundary.");
+		offset(newpos);
+		return n;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return (int) (size - offset());
+	}
+
+	@Override
+	public void offset(long offset) throws IOException {
+		long pos = offset - bufferStart;
+		if (pos >= 0 && pos <= valid) {
+			buffer.position((int) pos);
+		} else {
+			rebase(offset);
+		}
+	}
+
+	@Override
+	public long offset() throws IOException {
+		return bufferStart + buffer.position();
+	}
+
+	@Override
+	public ByteOrder getByteOrder() {
+		return buffer.order();
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			channel.close();
+		}
+	}
+
+}
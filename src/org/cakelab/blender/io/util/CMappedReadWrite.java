@@ -0,0 +1,39 @@
+package org.cakelab.blender.io.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Provides access to the body of a block, which is a slice of a 
+ * memory mapped region of the file (see {@link MappedRegions}).
+ * <p>
+ * In contrast to {@link CBufferReadWrite} with an array backed 
+ * buffer, the data is not copied into the heap on load. Pages
+ * are loaded by the operating system on first access.
+ * </p>
+ * <p>
+ * Whether modifications are written through to the file or not,
+ * depends on the map mode of the region. Java .Blend maps files
+ * privately (copy on write) by default, which means modifications 
+ * are visible to the process only until the file gets written.
+ * </p>
+ */
+public class CMappedReadWrite extends CBufferReadWrite {
+
+	public CMappedReadWrite(ByteBuffer slice, long address, int pointerSize) {
+		super(slice, address, pointerSize);
+	}
+
+	/**
+	 * A mapped buffer is not backed by an array. Thus, this
+	 * method returns a <b>copy</b> of the data.
+	 */
+	@Override
+	public byte[] getBytes() {
+		ByteBuffer view = rawData.duplicate();
+		view.clear();
+		byte[] copy = new byte[view.remaining()];
+		view.get(copy);
+		return copy;
+	}
+
+}
@@ -0,0 +1,206 @@
+package org.cakelab.blender.io.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.cakelab.blender.io.zstd.SeekableZstd;
+
+/**
+ * Read access to the decompressed content of a seekable Zstandard file 
+ * (see {@link SeekableZstd}).
+ * <p>
+ * The reader accesses the decompressed data of the frame, which contains
+ * the current offset. Frames get decompressed on first access. Thus, 
+ * only frames containing data which is actually read get decompressed.
+ * Any attempt to write results in an {@link IOException}.
+ * </p>
+ */
+public class CSeekableZstdReader extends CDataReadWriteAccess {
+	
+	private SeekableZstd source;
+	
+	/** decompressed data of the current frame */
+	private ByteBuffer frame;
+	/** offset of the current frame in the decompressed content */
+	private long frameStart;
+	
+	/** used to read values spanning frame boundaries */
+	private ByteBuffer scratch;
+
+	
+	public CSeekableZstdReader(SeekableZstd source, ByteOrder byteOrder, int pointerSize) {
+		super(pointerSize);
+		this.source = source;
+		this.frame = ByteBuffer.allocate(0);
+		this.frame.order(byteOrder);
+		this.frameStart = 0;
+		this.scratch = ByteBuffer.allocate(8);
+		this.scratch.order(byteOrder);
+	}
+
+	/**
+	 * Makes the frame containing the given offset the current frame.
+	 */
+	private void select(long offset) throws IOException {
+		int index = source.frameIndex(offset);
+		if (index < 0) {
+			if (offset > source.size()) throw new IOException("offset beyond end of file.");
+			frame = ByteBuffer.allocate(0);
+			frameStart = offset;
+		} else {
+			frame = ByteBuffer.wrap(source.frame(index));
+			frameStart = source.frameStart(index);
+			frame.position((int) (offset - frameStart));
+		}
+		frame.order(scratch.order());
+	}
+	
+	/**
+	 * Returns a buffer positioned at the next n bytes.
+	 */
+	private ByteBuffer readable(int n) throws IOException {
+		if (frame.remaining() >= n) {
+			return frame;
+		}
+		if (!frame.hasRemaining()) {
+			select(offset());
+			if (frame.remaining() >= n) return frame;
+		}
+		// value spans two frames
+		scratch.clear();
+		readFully(scratch.array(), 0, n);
+		scratch.limit(n);
+		return scratch;
+	}
+	
+	@Override
+	public byte readByte() throws IOException {
+		return readable(1).get();
+	}
+
+	@Override
+	public short readShort() throws IOException {
+		return readable(2).getShort();
+	}
+
+	@Override
+	public int readInt() throws IOException {
+		return readable(4).getInt();
+	}
+
+	@Override
+	public long readInt64() throws IOException {
+		return readable(8).getLong();
+	}
+
+	@Override
+	public float readFloat() throws IOException {
+		return readable(4).getFloat();
+	}
+
+	@Override
+	public double readDouble() throws IOException {
+		return readable(8).getDouble();
+	}
+
+	@Override
+	public void readFully(byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			if (!frame.hasRemaining()) {
+				select(offset());
+				if (!frame.hasRemaining()) throw new EOFException();
+			}
+			int n = Math.min(len, frame.remaining());
+			frame.get(b, off, n);
+			off += n;
+			len -= n;
+		}
+	}
+
+	@Override
+	public void writeByte(int value) throws IOException {
+		throw new IOException("read only file");
+	}
+
+	@Override
+	public void writeShort(short value) throws IOException {
+		throw new IOException("read only file");
+	}
+
+	@Override
+	public void writeInt(int value) throws IOException {
+		throw new IOException("read only file");
+	}
+
+	@Override
+	public void writeInt64(long value) throws IOException {
+		throw new IOException("read only file");
+	}
+
+	@Override
+	public void writeFloat(float value) throws IOException {
+		throw new IOException("read only file");
+	}
+
+	@Override
+	public void writeDouble(double value) throws IOException {
+		throw new IOException("read only file");
+	}
+
+	@Override
+	public void padding(int alignment) throws IOException {
+		padding(alignment, false);
+	}
+
+	@Override
+	public void padding(int alignment, boolean extend) throws IOException {
+		long misalignment = offset()%alignment;
+		if (misalignment > 0) {
+			skip(alignment-misalignment);
+		}
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		if (n <= 0) {
+			return 0;
+		}
+		long newpos = offset() + n;
+		if (newpos > source.size()) throw new IOException("Skipping beyond file boundary.");
+		offset(newpos);
+		return n;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return (int) Math.min(source.size() - offset(), Integer.MAX_VALUE);
+	}
+
+	@Override
+	public void offset(long offset) throws IOException {
+		long pos = offset - frameStart;
+		if (pos >= 0 && pos <= frame.limit()) {
+			frame.position((int) pos);
+		} else {
+			select(offset);
+		}
+	}
+
+	@Override
+	public long offset() throws IOException {
+		return frameStart + frame.position();
+	}
+
+	@Override
+	public ByteOrder getByteOrder() {
+		return scratch.order();
+	}
+
+	@Override
+	public void close() throws IOException {
+		source.close();
+	}
+
+}
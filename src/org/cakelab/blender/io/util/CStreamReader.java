@@ -0,0 +1,244 @@
+package org.cakelab.blender.io.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Forward only read access to data of an {@link InputStream}, such as
+ * a decompressing stream.
+ * <p>
+ * Data is read through a reusable buffer, which decodes values in the 
+ * byte order of the file. Large byte arrays are read directly from 
+ * the stream. The offset can only be moved forward (see {@link #skip(long)}).
+ * Any attempt to write or to move backwards results in an {@link IOException}.
+ * </p>
+ */
+public class CStreamReader extends CDataReadWriteAccess {
+
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+	
+	private InputStream in;
+	
+	/** buffered data between position and limit */
+	private ByteBuffer buffer;
+	/** stream offset of the first byte in the buffer */
+	private long bufferStart;
+	
+	
+	/**
+	 * @param in The stream to read from.
+	 * @param byteOrder Byte order of the data.
+	 * @param pointerSize Size of pointers in the data.
+	 * @param offset Offset of the first byte of the stream (reported by {@link #offset()}).
+	 */
+	public CStreamReader(InputStream in, ByteOrder byteOrder, int pointerSize, long offset) {
+		super(pointerSize);
+		this.in = in;
+		this.buffer = ByteBuffer.allocate(DEFAULT_BUFFER_SIZE);
+		this.buffer.order(byteOrder);
+		this.buffer.limit(0);
+		this.bufferStart = offset;
+	}
+
+	/**
+	 * Continues reading where the given reader stopped, but with
+	 * a different encoding. This is used to read the file header 
+	 * first, which determines the encoding of the remaining data.
+	 * The given reader must not be used afterwards.
+	 */
+	public CStreamReader(CStreamReader previous, ByteOrder byteOrder, int pointerSize) {
+		super(pointerSize);
+		this.in = previous.in;
+		this.buffer = previous.buffer.duplicate();
+		this.buffer.order(byteOrder);
+		this.bufferStart = previous.bufferStart;
+		previous.in = null;
+		previous.buffer = null;
+	}
+
+	/**
+	 * Makes sure that the next n bytes are available in the buffer.
+	 */
+	private void ensureReadable(int n) throws IOException {
+		if (buffer.remaining() < n) {
+			bufferStart += buffer.position();
+			buffer.compact();
+			byte[] array = buffer.array();
+			while (buffer.position() < n) {
+				int read = in.read(array, buffer.position(), buffer.capacity() - buffer.position());
+				if (read < 0) break;
+				buffer.position(buffer.position() + read);
+			}
+			buffer.flip();
+			if (buffer.remaining() < n) throw new EOFException();
+		}
+	}
+
+	/**
+	 * Drops the content of the buffer.
+	 */
+	private void discard() {
+		bufferStart += buffer.limit();
+		buffer.position(0);
+		buffer.limit(0);
+	}
+	
+	@Override
+	public byte readByte() throws IOException {
+		ensureReadable(1);
+		return buffer.get();
+	}
+
+	@Override
+	public short readShort() throws IOException {
+		ensureReadable(2);
+		return buffer.getShort();
+	}
+
+	@Override
+	public int readInt() throws IOException {
+		ensureReadable(4);
+		return buffer.getInt();
+	}
+
+	@Override
+	public long readInt64() throws IOException {
+		ensureReadable(8);
+		return buffer.getLong();
+	}
+
+	@Override
+	public float readFloat() throws IOException {
+		ensureReadable(4);
+		return buffer.getFloat();
+	}
+
+	@Override
+	public double readDouble() throws IOException {
+		ensureReadable(8);
+		return buffer.getDouble();
+	}
+
+	@Override
+	public void readFully(byte[] b, int off, int len) throws IOException {
+		int n = Math.min(buffer.remaining(), len);
+		buffer.get(b, off, n);
+		off += n;
+		len -= n;
+		if (len >= buffer.capacity()) {
+			// bypass the buffer
+			discard();
+			while (len > 0) {
+				int read = in.read(b, off, len);
+				if (read < 0) throw new EOFException();
+				off += read;
+				len -= read;
+				bufferStart += read;
+			}
+		} else if (len > 0) {
+			ensureReadable(len);
+			buffer.get(b, off, len);
+		}
+	}
+
+	@Override
+	public void writeByte(int value) throws IOException {
+		throw new IOException("read only stream");
+	}
+
+	@Override
+	public void writeShort(short value) throws IOException {
+		throw new IOException("read only stream");
+	}
+
+	@Override
+	public void writeInt(int value) throws IOException {
+		throw new IOException("read only stream");
+	}
+
+	@Override
+	public void writeInt64(long value) throws IOException {
+		throw new IOException("read only stream");
+	}
+
+	@Override
+	public void writeFloat(float value) throws IOException {
+		throw new IOException("read only stream");
+	}
+
+	@Override
+	public void writeDouble(double value) throws IOException {
+		throw new IOException("read only stream");
+	}
+
+	@Override
+	public void padding(int alignment) throws IOException {
+		padding(alignment, false);
+	}
+
+	@Override
+	public void padding(int alignment, boolean extend) throws IOException {
+		long misalignment = offset()%alignment;
+		if (misalignment > 0) {
+			skip(alignment-misalignment);
+		}
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		if (n <= 0) {
+			return 0;
+		}
+		if (n <= buffer.remaining()) {
+			buffer.position(buffer.position() + (int)n);
+			return n;
+		}
+		long remaining = n - buffer.remaining();
+		discard();
+		while (remaining > 0) {
+			long skipped = in.skip(remaining);
+			if (skipped <= 0) {
+				// skip does not report the end of the stream
+				if (in.read() < 0) throw new IOException("Skipping beyond end of stream.");
+				skipped = 1;
+			}
+			remaining -= skipped;
+			bufferStart += skipped;
+		}
+		return n;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return buffer.remaining() + in.available();
+	}
+
+	@Override
+	public void offset(long offset) throws IOException {
+		long pos = offset();
+		if (offset < pos) throw new IOException("stream cannot be repositioned backwards.");
+		skip(offset - pos);
+	}
+
+	@Override
+	public long offset() throws IOException {
+		return bufferStart + buffer.position();
+	}
+
+	@Override
+	public ByteOrder getByteOrder() {
+		return buffer.order();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (in != null) {
+			in.close();
+			in = null;
+		}
+	}
+
+}
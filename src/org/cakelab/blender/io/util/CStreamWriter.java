@@ -0,0 +1,246 @@
+package org.cakelab.blender.io.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Forward only write access to a {@link WritableByteChannel}, such as
+ * a socket or a channel on an {@link java.io.OutputStream} 
+ * (see {@link java.nio.channels.Channels#newChannel(java.io.OutputStream)}).
+ * <p>
+ * Values are encoded in the byte order of the file into a reusable direct 
+ * buffer, which gets written to the channel when it is full. Large amounts of 
+ * data bypass the buffer: Pending data in the buffer is written along with 
+ * them in one gathering write (if supported by the channel) and data of 
+ * another file is transferred by {@link FileChannel#transferTo(long, long, WritableByteChannel)}.
+ * The offset can only be moved forward (see {@link #skip(long)}), which 
+ * fills the gap with zeros. Any attempt to read or to move backwards results 
+ * in an {@link IOException}.
+ * </p>
+ */
+public class CStreamWriter extends CDataReadWriteAccess {
+
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+	
+	private WritableByteChannel channel;
+	
+	/** data to be written between 0 and position */
+	private ByteBuffer buffer;
+	/** stream offset of the first byte in the buffer */
+	private long bufferStart;
+	
+	
+	/**
+	 * @param channel The channel to write to.
+	 * @param byteOrder Byte order of the data.
+	 * @param pointerSize Size of pointers in the data.
+	 * @param offset Offset of the first byte written to the channel (reported by {@link #offset()}).
+	 */
+	public CStreamWriter(WritableByteChannel channel, ByteOrder byteOrder, int pointerSize, long offset) {
+		super(pointerSize);
+		this.channel = channel;
+		this.buffer = ByteBuffer.allocateDirect(DEFAULT_BUFFER_SIZE);
+		this.buffer.order(byteOrder);
+		this.bufferStart = offset;
+	}
+
+	/**
+	 * Writes buffered data to the channel.
+	 */
+	@Override
+	public void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			bufferStart += channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * Makes sure that the next n bytes fit into the buffer.
+	 */
+	private void ensureWritable(int n) throws IOException {
+		if (buffer.remaining() < n) {
+			flush();
+		}
+	}
+	
+	@Override
+	public void writeByte(int value) throws IOException {
+		ensureWritable(1);
+		buffer.put((byte) value);
+	}
+
+	@Override
+	public void writeShort(short value) throws IOException {
+		ensureWritable(2);
+		buffer.putShort(value);
+	}
+
+	@Override
+	public void writeInt(int value) throws IOException {
+		ensureWritable(4);
+		buffer.putInt(value);
+	}
+
+	@Override
+	public void writeInt64(long value) throws IOException {
+		ensureWritable(8);
+		buffer.putLong(value);
+	}
+
+	@Override
+	public void writeFloat(float value) throws IOException {
+		ensureWritable(4);
+		buffer.putFloat(value);
+	}
+
+	@Override
+	public void writeDouble(double value) throws IOException {
+		ensureWritable(8);
+		buffer.putDouble(value);
+	}
+
+	@Override
+	public void writeFully(byte[] b, int off, int len) throws IOException {
+		if (len >= buffer.capacity()) {
+			writeFully(ByteBuffer.wrap(b, off, len));
+		} else {
+			ensureWritable(len);
+			buffer.put(b, off, len);
+		}
+	}
+
+	@Override
+	public void writeFully(ByteBuffer src) throws IOException {
+		int len = src.remaining();
+		if (len >= buffer.capacity()) {
+			// bypass the buffer
+			if (channel instanceof GatheringByteChannel) {
+				buffer.flip();
+				ByteBuffer[] srcs = new ByteBuffer[]{buffer, src};
+				while (src.hasRemaining()) {
+					bufferStart += ((GatheringByteChannel)channel).write(srcs);
+				}
+				buffer.clear();
+			} else {
+				flush();
+				while (src.hasRemaining()) {
+					bufferStart += channel.write(src);
+				}
+			}
+		} else {
+			ensureWritable(len);
+			buffer.put(src);
+		}
+	}
+
+	@Override
+	public void transferFrom(FileChannel src, long position, long count) throws IOException {
+		if (count >= buffer.capacity()) {
+			flush();
+			long end = position + count;
+			while (position < end) {
+				long transferred = src.transferTo(position, end - position, channel);
+				if (transferred <= 0) throw new EOFException();
+				position += transferred;
+			}
+			bufferStart += count;
+		} else {
+			super.transferFrom(src, position, count);
+		}
+	}
+
+	@Override
+	public byte readByte() throws IOException {
+		throw new IOException("write only stream");
+	}
+
+	@Override
+	public short readShort() throws IOException {
+		throw new IOException("write only stream");
+	}
+
+	@Override
+	public int readInt() throws IOException {
+		throw new IOException("write only stream");
+	}
+
+	@Override
+	public long readInt64() throws IOException {
+		throw new IOException("write only stream");
+	}
+
+	@Override
+	public float readFloat() throws IOException {
+		throw new IOException("write only stream");
+	}
+
+	@Override
+	public double readDouble() throws IOException {
+		throw new IOException("write only stream");
+	}
+
+	@Override
+	public void readFully(byte[] b, int off, int len) throws IOException {
+		throw new IOException("write only stream");
+	}
+
+	@Override
+	public void padding(int alignment) throws IOException {
+		padding(alignment, true);
+	}
+
+	@Override
+	public void padding(int alignment, boolean extend) throws IOException {
+		long misalignment = offset()%alignment;
+		if (misalignment > 0) {
+			skip(alignment-misalignment);
+		}
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		for (long i = 0; i < n; i++) {
+			writeByte(0);
+		}
+		return Math.max(n, 0);
+	}
+
+	@Override
+	public int available() throws IOException {
+		return 0;
+	}
+
+	@Override
+	public void offset(long offset) throws IOException {
+		long pos = offset();
+		if (offset < pos) throw new IOException("stream cannot be repositioned backwards.");
+		skip(offset - pos);
+	}
+
+	@Override
+	public long offset() throws IOException {
+		return bufferStart + buffer.position();
+	}
+
+	@Override
+	public ByteOrder getByteOrder() {
+		return buffer.order();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (channel != null) {
+			flush();
+			channel.close();
+			channel = null;
+		}
+	}
+
+}
@@ -0,0 +1,268 @@
+package org.cakelab.blender.io.util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Output stream, which splits the data into frames of a fixed size and
+ * compresses each frame independent of the others.
+ * <p>
+ * Frames are compressed either in the writing thread or concurrently
+ * on an {@link Executor}. Concurrently compressed frames are written
+ * in order. The number of frames in progress is bounded, thus the
+ * writing thread blocks if the executor falls behind and the memory
+ * consumption stays bounded as well.
+ * </p>
+ * <p>
+ * Subclasses implement the compression format. The header of the format
+ * has to be written by the constructor of the subclass, and the trailer by
+ * {@link #writeTrailer(OutputStream)}. {@link #compress(byte[], int, byte[])}
+ * may be called concurrently and must not modify the state of the stream.
+ * </p>
+ */
+public abstract class FrameCompressingOutputStream extends OutputStream {
+
+	public static final int DEFAULT_FRAME_SIZE = 1024 * 1024;
+
+	private OutputStream out;
+	private final Executor executor;
+	private final int frameSize;
+	/** maximum number of frames in progress */
+	private final int maxPending;
+
+	/** frame currently being filled */
+	private byte[] frame;
+	private int count;
+	private long frames;
+	/** dictionary provided by the preceding frame */
+	private byte[] previousDictionary;
+
+	/** frames in progress in the order they were filled */
+	private final ArrayDeque<FrameTask> pending = new ArrayDeque<FrameTask>();
+	/** buffers of frames which have been written */
+	private final ArrayDeque<byte[]> free = new ArrayDeque<byte[]>();
+
+	private boolean finished;
+
+
+	/**
+	 * A frame compressed on the executor.
+	 */
+	private class FrameTask implements Callable<byte[]> {
+		final byte[] data;
+		final int length;
+		final byte[] dictionary;
+		final FutureTask<byte[]> future = new FutureTask<byte[]>(this);
+
+		FrameTask(byte[] data, int length, byte[] dictionary) {
+			this.data = data;
+			this.length = length;
+			this.dictionary = dictionary;
+		}
+
+		@Override
+		public byte[] call() throws IOException {
+			return compress(data, length, dictionary);
+		}
+	}
+
+
+	/**
+	 * @param out Stream receiving the compressed data.
+	 * @param frameSize Amount of uncompressed data per frame.
+	 * @param executor Executor to compress frames concurrently or
+	 *        null to compress them in the writing thread.
+	 */
+	protected FrameCompressingOutputStream(OutputStream out, int frameSize, Executor executor) {
+		if (frameSize <= 0) throw new IllegalArgumentException("frame size must be positive");
+		this.out = out;
+		this.frameSize = frameSize;
+		this.executor = executor;
+		this.maxPending = executor == null ? 0 : 2 * Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * Compresses a single frame. This method may be called concurrently.
+	 *
+	 * @param data Uncompressed data of the frame.
+	 * @param length Amount of data in the frame.
+	 * @param dictionary Dictionary given by {@link #frameFilled(byte[], int)}
+	 *        for the preceding frame or null.
+	 * @return compressed frame
+	 */
+	protected abstract byte[] compress(byte[] data, int length, byte[] dictionary) throws IOException;
+
+	/**
+	 * Called in the writing thread for each frame in order,
+	 * before the frame gets compressed (e.g. to compute a checksum
+	 * over the uncompressed data).
+	 *
+	 * @return Dictionary to be used by the next frame or null (default).
+	 */
+	protected byte[] frameFilled(byte[] data, int length) {
+		return null;
+	}
+
+	/**
+	 * Called in the writing thread for each frame in order, after
+	 * the compressed frame has been written.
+	 *
+	 * @param length Uncompressed size of the frame.
+	 * @param compressedLength Compressed size of the frame.
+	 */
+	protected void frameWritten(int length, int compressedLength) {}
+
+	/**
+	 * Writes the trailer of the format after the last frame.
+	 */
+	protected void writeTrailer(OutputStream out) throws IOException {}
+
+
+	@Override
+	public void write(int b) throws IOException {
+		ensureOpen();
+		if (frame == null) frame = allocate();
+		frame[count++] = (byte) b;
+		if (count == frameSize) submit();
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		ensureOpen();
+		while (len > 0) {
+			if (frame == null) frame = allocate();
+			int n = Math.min(len, frameSize - count);
+			System.arraycopy(b, off, frame, count, n);
+			count += n;
+			off += n;
+			len -= n;
+			if (count == frameSize) submit();
+		}
+	}
+
+	/**
+	 * Writes all frames in progress and flushes the underlying stream.
+	 * The frame currently being filled is not terminated.
+	 */
+	@Override
+	public void flush() throws IOException {
+		ensureOpen();
+		drain(0);
+		out.flush();
+	}
+
+	/**
+	 * Compresses the remaining data and writes the trailer
+	 * without closing the underlying stream.
+	 */
+	public void finish() throws IOException {
+		if (finished) return;
+		ensureOpen();
+		try {
+			if (count > 0 || frames == 0) {
+				if (frame == null) frame = allocate();
+				submit();
+			}
+			drain(0);
+			writeTrailer(out);
+			out.flush();
+		} finally {
+			finished = true;
+			cancel();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (out == null) return;
+		try {
+			finish();
+		} finally {
+			out.close();
+			out = null;
+		}
+	}
+
+	private void ensureOpen() throws IOException {
+		if (out == null) throw new IOException("stream closed");
+		if (finished) throw new IOException("stream finished");
+	}
+
+	private byte[] allocate() {
+		byte[] buffer = free.poll();
+		return buffer != null ? buffer : new byte[frameSize];
+	}
+
+	/**
+	 * Compresses the current frame or hands it over to the executor.
+	 */
+	private void submit() throws IOException {
+		byte[] data = frame;
+		int length = count;
+		byte[] dictionary = previousDictionary;
+		previousDictionary = frameFilled(data, length);
+		frame = null;
+		count = 0;
+		frames++;
+		if (executor == null) {
+			byte[] compressed = compress(data, length, dictionary);
+			writeFrame(compressed, length);
+			free.add(data);
+		} else {
+			FrameTask task = new FrameTask(data, length, dictionary);
+			try {
+				executor.execute(task.future);
+			} catch (RuntimeException e) {
+				// e.g. executor has been shut down
+				throw new IOException("failed to compress frame.", e);
+			}
+			pending.add(task);
+			drain(maxPending);
+		}
+	}
+
+	/**
+	 * Writes compressed frames in order until at most the given
+	 * number of frames are in progress.
+	 */
+	private void drain(int remaining) throws IOException {
+		while (pending.size() > remaining) {
+			FrameTask task = pending.peek();
+			byte[] compressed;
+			try {
+				compressed = task.future.get();
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException("interrupted while compressing.");
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof IOException) throw (IOException)cause;
+				throw new IOException(cause);
+			}
+			pending.poll();
+			writeFrame(compressed, task.length);
+			free.add(task.data);
+		}
+	}
+
+	private void writeFrame(byte[] compressed, int length) throws IOException {
+		out.write(compressed);
+		frameWritten(length, compressed.length);
+	}
+
+	/**
+	 * Cancels frames in progress (after a failure).
+	 */
+	private void cancel() {
+		for (FrameTask task : pending) {
+			task.future.cancel(false);
+		}
+		pending.clear();
+		free.clear();
+	}
+}
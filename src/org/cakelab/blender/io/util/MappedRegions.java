@@ -0,0 +1,129 @@
+package org.cakelab.blender.io.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+
+/**
+ * Manages the memory mapped regions of a file, which are shared
+ * by the blocks of a blender file (see {@link CMappedReadWrite}).
+ * <p>
+ * A single mapping is limited to 2GB. Thus, larger files
+ * are mapped in multiple regions. Regions are created on
+ * demand, when a slice is requested, which is not covered
+ * by an existing region. Since blocks are requested in the
+ * order given in the file, a new region always starts at the
+ * beginning of the requested slice, which guarantees that a
+ * slice never spans two regions.
+ * </p>
+ */
+public class MappedRegions implements Closeable {
+
+	/** Upper bound for the size of a single region. */
+	public static final int MAX_REGION_SIZE = Integer.MAX_VALUE;
+
+	private static class Region {
+		long start;
+		long end;
+		MappedByteBuffer buffer;
+		Region(long start, MappedByteBuffer buffer) {
+			this.start = start;
+			this.end = start + buffer.capacity();
+			this.buffer = buffer;
+		}
+	}
+
+	private FileChannel channel;
+	private MapMode mode;
+	private long fileSize;
+	private int maxRegionSize;
+	/** regions sorted ascending by start offset. */
+	private ArrayList<Region> regions = new ArrayList<Region>();
+
+
+	public MappedRegions(FileChannel channel, MapMode mode) throws IOException {
+		this(channel, mode, MAX_REGION_SIZE);
+	}
+
+	public MappedRegions(FileChannel channel, MapMode mode, int maxRegionSize) throws IOException {
+		this.channel = channel;
+		this.mode = mode;
+		this.fileSize = channel.size();
+		this.maxRegionSize = maxRegionSize;
+	}
+
+	/**
+	 * Returns a view on the given area of the file, without copying.
+	 *
+	 * @param offset File offset of the first byte of the slice.
+	 * @param size Size of the slice in bytes.
+	 * @param byteOrder Byte order to be used by the returned buffer.
+	 * @return Buffer with position 0 and limit size.
+	 * @throws IOException if the area exceeds the file boundary.
+	 */
+	public synchronized ByteBuffer slice(long offset, int size, ByteOrder byteOrder) throws IOException {
+		if (offset + size > fileSize) throw new IOException("mapping beyond file boundary.");
+		ByteBuffer slice;
+		if (size == 0) {
+			slice = ByteBuffer.allocate(0);
+		} else {
+			Region region = find(offset, size);
+			if (region == null) {
+				region = map(offset, size);
+			}
+			ByteBuffer view = region.buffer.duplicate();
+			int position = (int) (offset - region.start);
+			view.limit(position + size);
+			view.position(position);
+			slice = view.slice();
+		}
+		slice.order(byteOrder);
+		return slice;
+	}
+
+	private Region find(long offset, int size) {
+		// binary search for the last region with start <= offset
+		int lo = 0;
+		int hi = regions.size() - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if (regions.get(mid).start <= offset) {
+				lo = mid + 1;
+			} else {
+				hi = mid - 1;
+			}
+		}
+		if (hi >= 0) {
+			Region r = regions.get(hi);
+			if (offset + size <= r.end) return r;
+		}
+		return null;
+	}
+
+	private Region map(long offset, int size) throws IOException {
+		long length = Math.min(maxRegionSize, fileSize - offset);
+		length = Math.max(length, size);
+		Region region = new Region(offset, channel.map(mode, offset, length));
+		int i = 0;
+		while (i < regions.size() && regions.get(i).start <= offset) i++;
+		regions.add(i, region);
+		return region;
+	}
+
+	/**
+	 * Releases all references to the mapped regions. The
+	 * mappings itself stay valid until all slices have been
+	 * garbage collected.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		regions.clear();
+		channel = null;
+	}
+
+}
@@ -0,0 +1,116 @@
+package org.cakelab.blender.io.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses data into the gzip format with frames being deflated
+ * concurrently on an {@link Executor}.
+ * <p>
+ * The output is a single gzip member, which can be read by any gzip
+ * decoder (including Blender, which reads only the first member of a
+ * gzip file). Each frame is deflated independently into a sequence
+ * of deflate blocks, which is terminated by a sync flush (an empty stored
+ * block) to align it to a byte boundary. The last 32 KiB of the preceding
+ * frame serve as preset dictionary, thus matches can still refer to data
+ * of the preceding frame. A final empty block, the CRC32 and the length
+ * of the uncompressed data terminate the stream.
+ * </p>
+ */
+public class ParallelGzipOutputStream extends FrameCompressingOutputStream {
+
+	private static final int GZIP_MAGIC = 0x8b1f;
+	/** size of the window of deflate */
+	private static final int DICTIONARY_SIZE = 32 * 1024;
+	/** empty deflate block of fixed Huffman codes with the final bit set */
+	private static final byte[] FINAL_BLOCK = {0x03, 0x00};
+
+	private final int level;
+	/** idle deflaters */
+	private final ConcurrentLinkedQueue<Deflater> deflaters = new ConcurrentLinkedQueue<Deflater>();
+
+	private final CRC32 crc = new CRC32();
+	private long length;
+
+
+	/**
+	 * @param out Stream receiving the compressed data.
+	 * @param level Compression level from 0 to 9 or {@link Deflater#DEFAULT_COMPRESSION}.
+	 * @param executor Executor to compress frames concurrently.
+	 */
+	public ParallelGzipOutputStream(OutputStream out, int level, Executor executor) throws IOException {
+		this(out, level, executor, DEFAULT_FRAME_SIZE);
+	}
+
+	/**
+	 * @param out Stream receiving the compressed data.
+	 * @param level Compression level from 0 to 9 or {@link Deflater#DEFAULT_COMPRESSION}.
+	 * @param executor Executor to compress frames concurrently.
+	 * @param frameSize Amount of uncompressed data per frame.
+	 */
+	public ParallelGzipOutputStream(OutputStream out, int level, Executor executor, int frameSize) throws IOException {
+		super(out, frameSize, executor);
+		if ((level < 0 || level > 9) && level != Deflater.DEFAULT_COMPRESSION) {
+			throw new IllegalArgumentException("invalid gzip compression level: " + level);
+		}
+		this.level = level;
+		// header of a gzip member without optional fields (same as GZIPOutputStream)
+		out.write(new byte[] {
+			(byte) GZIP_MAGIC, (byte) (GZIP_MAGIC >> 8), Deflater.DEFLATED, 0,
+			0, 0, 0, 0, 0, 0
+		});
+	}
+
+	@Override
+	protected byte[] frameFilled(byte[] data, int length) {
+		crc.update(data, 0, length);
+		this.length += length;
+		return Arrays.copyOfRange(data, Math.max(0, length - DICTIONARY_SIZE), length);
+	}
+
+	@Override
+	protected byte[] compress(byte[] data, int length, byte[] dictionary) {
+		Deflater deflater = deflaters.poll();
+		if (deflater == null) deflater = new Deflater(level, true);
+		try {
+			if (dictionary != null && dictionary.length > 0) {
+				deflater.setDictionary(dictionary);
+			}
+			deflater.setInput(data, 0, length);
+			byte[] out = new byte[length + (length >>> 10) + 64];
+			int size = 0;
+			while (true) {
+				size += deflater.deflate(out, size, out.length - size, Deflater.SYNC_FLUSH);
+				// the output is complete if the buffer has not been filled
+				if (size < out.length) break;
+				out = Arrays.copyOf(out, 2 * out.length);
+			}
+			return Arrays.copyOf(out, size);
+		} finally {
+			deflater.reset();
+			deflaters.add(deflater);
+		}
+	}
+
+	@Override
+	protected void writeTrailer(OutputStream out) throws IOException {
+		byte[] trailer = new byte[FINAL_BLOCK.length + 8];
+		System.arraycopy(FINAL_BLOCK, 0, trailer, 0, FINAL_BLOCK.length);
+		int crc = (int) this.crc.getValue();
+		int size = (int) length;
+		for (int i = 0; i < 4; i++) {
+			trailer[FINAL_BLOCK.length + i] = (byte) (crc >>> (8 * i));
+			trailer[FINAL_BLOCK.length + 4 + i] = (byte) (size >>> (8 * i));
+		}
+		out.write(trailer);
+		Deflater deflater;
+		while ((deflater = deflaters.poll()) != null) {
+			deflater.end();
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package org.cakelab.blender.io.zstd;
+
+import java.io.IOException;
+
+/**
+ * Reads a bit stream backwards, as used by FSE and Huffman coded 
+ * streams in Zstandard.
+ * <p>
+ * The stream starts at its last byte. The highest set bit of the last
+ * byte marks the beginning of the stream and all bits are read from
+ * the highest towards the lowest bit. Reading beyond the beginning of 
+ * the stream delivers zeros, which is required to detect the end of
+ * FSE streams (see {@link #isOverflow()}).
+ * </p>
+ */
+final class BackwardBitReader {
+	private byte[] src;
+	private int start;
+	private int end;
+	/** Number of bits remaining to be read (negative after overflow) */
+	private long bitPos;
+
+	void init(byte[] src, int start, int end) throws IOException {
+		if (end <= start) throw new IOException("corrupted zstd data: empty bit stream");
+		int last = src[end-1] & 0xff;
+		if (last == 0) throw new IOException("corrupted zstd data: missing bit stream marker");
+		this.src = src;
+		this.start = start;
+		this.end = end;
+		this.bitPos = (end - 1 - start) * 8L + (31 - Integer.numberOfLeadingZeros(last));
+	}
+	
+	/** 
+	 * Reads the next n bits (n &lt;= 32).
+	 */
+	int read(int n) {
+		if (n == 0) return 0;
+		bitPos -= n;
+		if (bitPos >= 0) {
+			return (int) (load(bitPos) & ((1L << n) - 1));
+		} else {
+			int valid = (int) (n + bitPos);
+			if (valid <= 0) return 0;
+			return (int) ((load(0) & ((1L << valid) - 1)) << (-bitPos));
+		}
+	}
+	
+	/** 
+	 * @return true, if more bits have been read than available.
+	 */
+	boolean isOverflow() {
+		return bitPos < 0;
+	}
+	
+	/**
+	 * @return remaining bits, negative if more bits have been read than available.
+	 */
+	long remaining() {
+		return bitPos;
+	}
+
+	/**
+	 * Loads at least 57 bits starting at the given bit position.
+	 */
+	private long load(long bit) {
+		int i = start + (int) (bit >>> 3);
+		long value = 0;
+		int n = Math.min(8, end - i);
+		for (int b = n - 1; b >= 0; b--) {
+			value = (value << 8) | (src[i + b] & 0xff);
+		}
+		return value >>> (bit & 7);
+	}
+}
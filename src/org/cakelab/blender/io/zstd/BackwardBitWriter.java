@@ -0,0 +1,52 @@
+package org.cakelab.blender.io.zstd;
+
+/**
+ * Writes a bit stream, which is read backwards by a
+ * {@link BackwardBitReader}.
+ * <p>
+ * Bits are appended from the lowest towards the highest bit. When
+ * the stream gets closed, a single set bit is appended, which marks
+ * the beginning of the stream for the reader.
+ * </p>
+ */
+final class BackwardBitWriter {
+	private byte[] dst;
+	private int pos;
+	private long container;
+	private int bitCount;
+
+	void init(byte[] dst, int pos) {
+		this.dst = dst;
+		this.pos = pos;
+		this.container = 0;
+		this.bitCount = 0;
+	}
+
+	/**
+	 * Appends the lowest n bits of the given value (n &lt;= 32).
+	 */
+	void write(int value, int n) {
+		container |= (value & ((1L << n) - 1)) << bitCount;
+		bitCount += n;
+		while (bitCount >= 8) {
+			dst[pos++] = (byte) container;
+			container >>>= 8;
+			bitCount -= 8;
+		}
+	}
+
+	/**
+	 * Appends the end mark and writes the remaining bits.
+	 *
+	 * @return position after the stream
+	 */
+	int close() {
+		write(1, 1);
+		if (bitCount > 0) {
+			dst[pos++] = (byte) container;
+		}
+		container = 0;
+		bitCount = 0;
+		return pos;
+	}
+}
@@ -0,0 +1,250 @@
+package org.cakelab.blender.io.zstd;
+
+/**
+ * Encoding table of finite state entropy (FSE) coded symbols,
+ * built from a distribution of normalised counts.
+ * <p>
+ * Symbols are spread over the states the same way as in the
+ * decoding table ({@link FseTable}). Symbols get encoded in
+ * reverse order, so that the decoder reads them in order.
+ * Encoder states are decoder states offset by the table size.
+ * </p>
+ */
+final class FseEncodingTable {
+
+	private static final int MIN_ACCURACY_LOG = 5;
+	private static final double LN2 = Math.log(2);
+
+	final int accuracyLog;
+	/** encoder states sorted by symbol */
+	private final int[] stateTable;
+	/** number of bits to output (upper 16 bit) and threshold per symbol */
+	private final int[] deltaNbBits;
+	/** index of the first state of a symbol in the state table, relative to its normalised count */
+	private final int[] deltaFindState;
+
+	FseEncodingTable(short[] norm, int accuracyLog) {
+		this.accuracyLog = accuracyLog;
+		int maxSymbol = norm.length - 1;
+		int size = 1 << accuracyLog;
+		int mask = size - 1;
+
+		// spread symbols (see FseTable.build)
+		int[] symbols = new int[size];
+		int[] cumul = new int[maxSymbol + 2];
+		int highThreshold = size - 1;
+		for (int s = 0; s <= maxSymbol; s++) {
+			if (norm[s] == -1) {
+				cumul[s + 1] = cumul[s] + 1;
+				symbols[highThreshold--] = s;
+			} else {
+				cumul[s + 1] = cumul[s] + norm[s];
+			}
+		}
+		int step = (size >>> 1) + (size >>> 3) + 3;
+		int position = 0;
+		for (int s = 0; s <= maxSymbol; s++) {
+			for (int i = 0; i < norm[s]; i++) {
+				symbols[position] = s;
+				do {
+					position = (position + step) & mask;
+				} while (position > highThreshold);
+			}
+		}
+
+		stateTable = new int[size];
+		for (int u = 0; u < size; u++) {
+			int s = symbols[u];
+			stateTable[cumul[s]++] = size + u;
+		}
+
+		deltaNbBits = new int[maxSymbol + 1];
+		deltaFindState = new int[maxSymbol + 1];
+		int total = 0;
+		for (int s = 0; s <= maxSymbol; s++) {
+			switch (norm[s]) {
+			case 0:
+				deltaNbBits[s] = ((accuracyLog + 1) << 16) - size;
+				break;
+			case -1:
+			case 1:
+				deltaNbBits[s] = (accuracyLog << 16) - size;
+				deltaFindState[s] = total - 1;
+				total++;
+				break;
+			default:
+				int maxBitsOut = accuracyLog - (31 - Integer.numberOfLeadingZeros(norm[s] - 1));
+				int minStatePlus = norm[s] << maxBitsOut;
+				deltaNbBits[s] = (maxBitsOut << 16) - minStatePlus;
+				deltaFindState[s] = total - norm[s];
+				total += norm[s];
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Determines the accuracy log for the given number of symbols 
+	 * with the given maximum symbol value.
+	 */
+	static int optimalAccuracyLog(int total, int maxSymbol, int maxLog) {
+		int log = maxLog;
+		int maxBitsSrc = (31 - Integer.numberOfLeadingZeros(total - 1)) - 2;
+		if (maxBitsSrc < log) log = maxBitsSrc;
+		int minBits = Math.min((31 - Integer.numberOfLeadingZeros(total - 1)) + 1, (31 - Integer.numberOfLeadingZeros(maxSymbol)) + 2);
+		if (minBits > log) log = minBits;
+		return Math.max(MIN_ACCURACY_LOG, Math.min(log, maxLog));
+	}
+	
+	/**
+	 * Normalises the given symbol counts to a sum of 2^accuracyLog.
+	 * Each occurring symbol receives a count of at least 1. 
+	 * 
+	 * @return normalised counts of the symbols up to maxSymbol
+	 */
+	static short[] normalize(int[] counts, int maxSymbol, int total, int accuracyLog) {
+		int size = 1 << accuracyLog;
+		short[] norm = new short[maxSymbol + 1];
+		int sum = 0;
+		for (int s = 0; s <= maxSymbol; s++) {
+			if (counts[s] > 0) {
+				norm[s] = (short) Math.max(1, ((long) counts[s] * size + total / 2) / total);
+				sum += norm[s];
+			}
+		}
+		// correct rounding errors at the lowest cost
+		while (sum > size) {
+			int best = -1;
+			double bestLoss = Double.MAX_VALUE;
+			for (int s = 0; s <= maxSymbol; s++) {
+				if (norm[s] > 1) {
+					double loss = counts[s] * Math.log((double) norm[s] / (norm[s] - 1));
+					if (loss < bestLoss) {
+						bestLoss = loss;
+						best = s;
+					}
+				}
+			}
+			norm[best]--;
+			sum--;
+		}
+		while (sum < size) {
+			int best = -1;
+			double bestGain = -1;
+			for (int s = 0; s <= maxSymbol; s++) {
+				if (counts[s] > 0) {
+					double gain = counts[s] * Math.log((double) (norm[s] + 1) / norm[s]);
+					if (gain > bestGain) {
+						bestGain = gain;
+						best = s;
+					}
+				}
+			}
+			norm[best]++;
+			sum++;
+		}
+		return norm;
+	}
+	
+	/**
+	 * Estimates the number of bits required to encode symbols with the 
+	 * given counts using the given normalised counts.
+	 * 
+	 * @return number of bits or {@link Double#MAX_VALUE} if a symbol cannot be encoded.
+	 */
+	static double cost(int[] counts, int maxSymbol, short[] norm, int accuracyLog) {
+		double bits = 0;
+		for (int s = 0; s <= maxSymbol; s++) {
+			if (counts[s] > 0) {
+				if (s >= norm.length || norm[s] == 0) return Double.MAX_VALUE;
+				int n = norm[s] < 0 ? 1 : norm[s];
+				bits += counts[s] * (accuracyLog - Math.log(n) / LN2);
+			}
+		}
+		return bits;
+	}
+	
+	/**
+	 * Writes the description of a table with the given normalised counts,
+	 * as read by {@link FseTable#read(byte[], int, int, int, int)}.
+	 * 
+	 * @return position after the description
+	 */
+	static int writeDescription(short[] norm, int accuracyLog, byte[] dst, int pos) {
+		int alphabetSize = norm.length;
+		long bitStream = accuracyLog - MIN_ACCURACY_LOG;
+		int bitCount = 4;
+		
+		int remaining = (1 << accuracyLog) + 1;
+		int threshold = 1 << accuracyLog;
+		int nbBits = accuracyLog + 1;
+		int s = 0;
+		boolean previous0 = false;
+		while (s < alphabetSize && remaining > 1) {
+			if (previous0) {
+				int start = s;
+				while (s < alphabetSize && norm[s] == 0) s++;
+				while (s >= start + 3) {
+					start += 3;
+					bitStream |= 3L << bitCount;
+					bitCount += 2;
+					while (bitCount >= 8) {
+						dst[pos++] = (byte) bitStream;
+						bitStream >>>= 8;
+						bitCount -= 8;
+					}
+				}
+				bitStream |= (long) (s - start) << bitCount;
+				bitCount += 2;
+			}
+			int count = norm[s++];
+			int max = (2 * threshold - 1) - remaining;
+			remaining -= count < 0 ? -count : count;
+			count++;
+			if (count >= threshold) count += max;
+			bitStream |= (long) count << bitCount;
+			bitCount += nbBits;
+			if (count < max) bitCount--;
+			previous0 = count == 1;
+			while (remaining < threshold) {
+				nbBits--;
+				threshold >>= 1;
+			}
+			while (bitCount >= 8) {
+				dst[pos++] = (byte) bitStream;
+				bitStream >>>= 8;
+				bitCount -= 8;
+			}
+		}
+		if (bitCount > 0) {
+			dst[pos++] = (byte) bitStream;
+		}
+		return pos;
+	}
+
+	/**
+	 * @return initial state for the given (last) symbol.
+	 */
+	int init(int symbol) {
+		int nbBitsOut = (deltaNbBits[symbol] + (1 << 15)) >>> 16;
+		int value = (nbBitsOut << 16) - deltaNbBits[symbol];
+		return stateTable[(value >>> nbBitsOut) + deltaFindState[symbol]];
+	}
+
+	/**
+	 * Encodes the given symbol in the given state.
+	 * @return next state
+	 */
+	int encode(BackwardBitWriter out, int state, int symbol) {
+		int nbBitsOut = (state + deltaNbBits[symbol]) >>> 16;
+		out.write(state, nbBitsOut);
+		return stateTable[(state >>> nbBitsOut) + deltaFindState[symbol]];
+	}
+
+	/**
+	 * Writes the final state, which is read first by the decoder.
+	 */
+	void flush(BackwardBitWriter out, int state) {
+		out.write(state, accuracyLog);
+	}
+}
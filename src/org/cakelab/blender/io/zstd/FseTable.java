@@ -0,0 +1,156 @@
+package org.cakelab.blender.io.zstd;
+
+import java.io.IOException;
+
+/**
+ * Decoding table of finite state entropy (FSE) coded symbols.
+ * <p>
+ * The table is either read from a table description in the 
+ * compressed data (see {@link #read(byte[], int, int, int, int)}), built
+ * from a predefined distribution or represents a single symbol 
+ * (RLE mode).
+ * </p>
+ */
+final class FseTable {
+	
+	int accuracyLog;
+	final int[] symbol;
+	final byte[] nbBits;
+	final int[] newState;
+
+	/** Normalised counts of symbols (temporary) */
+	private short[] norm = new short[256];
+	private int[] symbolNext = new int[256];
+
+	FseTable(int maxAccuracyLog) {
+		int size = 1 << maxAccuracyLog;
+		symbol = new int[size];
+		nbBits = new byte[size];
+		newState = new int[size];
+	}
+	
+	/**
+	 * Creates a table from a predefined distribution.
+	 */
+	static FseTable predefined(short[] distribution, int accuracyLog) {
+		FseTable table = new FseTable(accuracyLog);
+		System.arraycopy(distribution, 0, table.norm, 0, distribution.length);
+		table.build(distribution.length - 1, accuracyLog);
+		return table;
+	}
+	
+	/**
+	 * Turns this table into a table which always delivers the given symbol.
+	 */
+	void rle(int s) {
+		accuracyLog = 0;
+		symbol[0] = s;
+		nbBits[0] = 0;
+		newState[0] = 0;
+	}
+	
+	/**
+	 * Reads a table description and builds the table.
+	 * 
+	 * @return position after the table description
+	 */
+	int read(byte[] src, int pos, int end, int maxSymbol, int maxAccuracyLog) throws IOException {
+		long bits = 0; // bit offset relative to pos
+		int log = (int) (peek(src, pos, end, bits) & 0xf) + 5;
+		bits += 4;
+		if (log > maxAccuracyLog) throw new IOException("corrupted zstd data: FSE accuracy log too large");
+		
+		int remaining = (1 << log) + 1;
+		int threshold = 1 << log;
+		int nbBits = log + 1;
+		int s = 0;
+		boolean previous0 = false;
+		while (remaining > 1 && s < norm.length) {
+			if (previous0) {
+				int repeat;
+				do {
+					repeat = (int) (peek(src, pos, end, bits) & 3);
+					bits += 2;
+					for (int i = 0; i < repeat && s < norm.length; i++) {
+						norm[s++] = 0;
+					}
+				} while (repeat == 3);
+				if (s >= norm.length) break;
+			}
+			int max = (2 * threshold - 1) - remaining;
+			int value = (int) peek(src, pos, end, bits);
+			int count;
+			if ((value & (threshold - 1)) < max) {
+				count = value & (threshold - 1);
+				bits += nbBits - 1;
+			} else {
+				count = value & (2 * threshold - 1);
+				if (count >= threshold) count -= max;
+				bits += nbBits;
+			}
+			count--;
+			remaining -= count < 0 ? -count : count;
+			norm[s++] = (short) count;
+			previous0 = count == 0;
+			while (remaining < threshold) {
+				nbBits--;
+				threshold >>= 1;
+			}
+		}
+		if (remaining != 1 || s - 1 > maxSymbol) throw new IOException("corrupted zstd data: invalid FSE table description");
+		int consumed = (int) ((bits + 7) >>> 3);
+		if (pos + consumed > end) throw new IOException("corrupted zstd data: FSE table description exceeds block");
+		build(s - 1, log);
+		return pos + consumed;
+	}
+
+	/**
+	 * Reads up to 57 bits in little endian bit order at the given bit offset.
+	 */
+	private static long peek(byte[] src, int pos, int end, long bitOffset) {
+		int i = pos + (int) (bitOffset >>> 3);
+		long value = 0;
+		int n = Math.min(8, end - i);
+		for (int b = n - 1; b >= 0; b--) {
+			value = (value << 8) | (src[i + b] & 0xff);
+		}
+		return value >>> (bitOffset & 7);
+	}
+
+	/**
+	 * Builds the decoding table from the normalised counts.
+	 */
+	private void build(int maxSymbol, int log) {
+		accuracyLog = log;
+		int size = 1 << log;
+		int highThreshold = size - 1;
+		for (int s = 0; s <= maxSymbol; s++) {
+			if (norm[s] == -1) {
+				symbol[highThreshold--] = s;
+				symbolNext[s] = 1;
+			} else {
+				symbolNext[s] = norm[s];
+			}
+		}
+		
+		int mask = size - 1;
+		int step = (size >>> 1) + (size >>> 3) + 3;
+		int position = 0;
+		for (int s = 0; s <= maxSymbol; s++) {
+			for (int i = 0; i < norm[s]; i++) {
+				symbol[position] = s;
+				do {
+					position = (position + step) & mask;
+				} while (position > highThreshold);
+			}
+		}
+		
+		for (int u = 0; u < size; u++) {
+			int s = symbol[u];
+			int next = symbolNext[s]++;
+			int n = log - (31 - Integer.numberOfLeadingZeros(next));
+			nbBits[u] = (byte) n;
+			newState[u] = (next << n) - size;
+		}
+	}
+}
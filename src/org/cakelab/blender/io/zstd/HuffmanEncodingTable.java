@@ -0,0 +1,243 @@
+package org.cakelab.blender.io.zstd;
+
+import java.util.Arrays;
+
+/**
+ * Encoding table of Huffman coded literals.
+ * <p>
+ * Code lengths are limited to {@link HuffmanTable#MAX_BITS}. Codes
+ * are assigned the same way as by the decoder ({@link HuffmanTable}),
+ * which derives them from the code lengths given in the tree
+ * description (see {@link #writeDescription(byte[], int)}).
+ * </p>
+ */
+final class HuffmanEncodingTable {
+
+	private static final int MAX_BITS = HuffmanTable.MAX_BITS;
+	private static final int MAX_SYMBOLS = 256;
+	private static final int WEIGHTS_ACCURACY_LOG = 6;
+	/** maximum number of weights in direct representation */
+	private static final int MAX_DIRECT_WEIGHTS = 128;
+	/** maximum size of FSE compressed weights */
+	private static final int MAX_COMPRESSED_WEIGHTS = 127;
+
+	private int maxBits;
+	private int maxSymbol;
+	private final int[] codes = new int[MAX_SYMBOLS];
+	private final byte[] nbBits = new byte[MAX_SYMBOLS];
+
+	/** temporary data to build the code */
+	private final int[] sorted = new int[MAX_SYMBOLS];
+	private final long[] weight = new long[2 * MAX_SYMBOLS];
+	private final int[] parent = new int[2 * MAX_SYMBOLS];
+	private final int[] rankCount = new int[MAX_BITS + 2];
+	private final byte[] weights = new byte[MAX_SYMBOLS];
+	private final int[] weightCounts = new int[MAX_BITS + 2];
+	private final byte[] description = new byte[MAX_SYMBOLS];
+	private final BackwardBitWriter bits = new BackwardBitWriter();
+
+	/**
+	 * Builds a code for symbols with the given counts.
+	 * At least two symbols have to occur.
+	 */
+	void build(int[] counts) {
+		Arrays.fill(nbBits, (byte) 0);
+		int n = 0;
+		maxSymbol = 0;
+		for (int s = 0; s < MAX_SYMBOLS; s++) {
+			if (counts[s] > 0) {
+				sorted[n++] = s;
+				maxSymbol = s;
+			}
+		}
+		sortByCount(counts, n);
+
+		// Huffman tree: leaves 0..n-1 in ascending order of their
+		// counts, internal nodes n..2n-2 get created in ascending order.
+		for (int i = 0; i < n; i++) {
+			weight[i] = counts[sorted[i]];
+		}
+		int leaf = 0;
+		int node = n;
+		for (int next = n; next < 2 * n - 1; next++) {
+			for (int k = 0; k < 2; k++) {
+				int child;
+				if (leaf < n && (node >= next || weight[leaf] <= weight[node])) {
+					child = leaf++;
+				} else {
+					child = node++;
+				}
+				parent[child] = next;
+				if (k == 0) weight[next] = weight[child];
+				else weight[next] += weight[child];
+			}
+		}
+		// depths (code lengths) of leaves
+		int root = 2 * n - 2;
+		parent[root] = -1;
+		int[] depth = new int[2 * n - 1];
+		Arrays.fill(rankCount, 0);
+		for (int i = root - 1; i >= 0; i--) {
+			depth[i] = depth[parent[i]] + 1;
+			if (i < n) rankCount[Math.min(depth[i], MAX_BITS)]++;
+		}
+
+		// limit code lengths while keeping the code complete
+		int total = 0;
+		for (int len = 1; len <= MAX_BITS; len++) {
+			total += rankCount[len] << (MAX_BITS - len);
+		}
+		while (total > 1 << MAX_BITS) {
+			rankCount[MAX_BITS]--;
+			for (int len = MAX_BITS - 1; len > 0; len--) {
+				if (rankCount[len] > 0) {
+					rankCount[len]--;
+					rankCount[len + 1] += 2;
+					break;
+				}
+			}
+			total--;
+		}
+
+		// shortest codes for the most frequent symbols
+		int i = n - 1;
+		maxBits = 0;
+		for (int len = 1; len <= MAX_BITS; len++) {
+			for (int k = 0; k < rankCount[len]; k++) {
+				nbBits[sorted[i--]] = (byte) len;
+				maxBits = len;
+			}
+		}
+
+		// canonical codes in the order of the decoding table
+		int[] start = new int[MAX_BITS + 2];
+		int index = 0;
+		for (int len = maxBits; len >= 1; len--) {
+			start[len] = index;
+			index += rankCount[len] << (maxBits - len);
+		}
+		for (int s = 0; s <= maxSymbol; s++) {
+			int len = nbBits[s];
+			if (len > 0) {
+				codes[s] = start[len] >>> (maxBits - len);
+				start[len] += 1 << (maxBits - len);
+			}
+		}
+	}
+
+	/**
+	 * Sorts the first n symbols in {@link #sorted} by ascending count.
+	 */
+	private void sortByCount(int[] counts, int n) {
+		for (int i = 1; i < n; i++) {
+			int s = sorted[i];
+			int j = i - 1;
+			while (j >= 0 && counts[sorted[j]] > counts[s]) {
+				sorted[j + 1] = sorted[j];
+				j--;
+			}
+			sorted[j + 1] = s;
+		}
+	}
+
+	/**
+	 * @return number of bits required to encode symbols with the given counts.
+	 */
+	long cost(int[] counts) {
+		long total = 0;
+		for (int s = 0; s <= maxSymbol; s++) {
+			total += (long) counts[s] * nbBits[s];
+		}
+		return total;
+	}
+
+	/**
+	 * Writes the tree description, which consists of the weights of
+	 * all symbols except the last one.
+	 *
+	 * @return position after the description or -1, if the weights
+	 * cannot be represented.
+	 */
+	int writeDescription(byte[] dst, int pos) {
+		int count = maxSymbol;
+		Arrays.fill(weightCounts, 0);
+		int maxWeight = 0;
+		for (int s = 0; s < count; s++) {
+			int w = nbBits[s] == 0 ? 0 : maxBits + 1 - nbBits[s];
+			weights[s] = (byte) w;
+			weightCounts[w]++;
+			maxWeight = Math.max(maxWeight, w);
+		}
+
+		int size = compressWeights(count, maxWeight);
+		if (size > 0 && (size < (count + 1) / 2 || count > MAX_DIRECT_WEIGHTS)) {
+			dst[pos++] = (byte) size;
+			System.arraycopy(description, 0, dst, pos, size);
+			return pos + size;
+		} else if (count <= MAX_DIRECT_WEIGHTS) {
+			dst[pos++] = (byte) (127 + count);
+			for (int i = 0; i < count; i += 2) {
+				int low = i + 1 < count ? weights[i + 1] : 0;
+				dst[pos++] = (byte) (weights[i] << 4 | low);
+			}
+			return pos;
+		}
+		return -1;
+	}
+
+	/**
+	 * Compresses the weights with FSE into {@link #description}.
+	 *
+	 * @return size of the compressed weights or -1 if they don't compress.
+	 */
+	private int compressWeights(int count, int maxWeight) {
+		if (count < 2) return -1;
+		for (int w = 0; w <= maxWeight; w++) {
+			// a single weight value cannot be encoded by FSE
+			if (weightCounts[w] == count) return -1;
+		}
+		int log = FseEncodingTable.optimalAccuracyLog(count, maxWeight, WEIGHTS_ACCURACY_LOG);
+		short[] norm = FseEncodingTable.normalize(weightCounts, maxWeight, count, log);
+		FseEncodingTable table = new FseEncodingTable(norm, log);
+
+		// worst case: table description and 1 byte per weight
+		byte[] tmp = new byte[MAX_SYMBOLS + 64];
+		int pos = FseEncodingTable.writeDescription(norm, log, tmp, 0);
+		bits.init(tmp, pos);
+		int i = count;
+		int state1;
+		int state2;
+		if ((count & 1) != 0) {
+			state1 = table.init(weights[--i]);
+			state2 = table.init(weights[--i]);
+			state1 = table.encode(bits, state1, weights[--i]);
+		} else {
+			state2 = table.init(weights[--i]);
+			state1 = table.init(weights[--i]);
+		}
+		while (i > 0) {
+			state2 = table.encode(bits, state2, weights[--i]);
+			state1 = table.encode(bits, state1, weights[--i]);
+		}
+		table.flush(bits, state2);
+		table.flush(bits, state1);
+		int size = bits.close();
+		if (size > MAX_COMPRESSED_WEIGHTS) return -1;
+		System.arraycopy(tmp, 0, description, 0, size);
+		return size;
+	}
+
+	/**
+	 * Encodes the given symbols into a single stream.
+	 *
+	 * @return position after the stream
+	 */
+	int encode(byte[] src, int off, int len, byte[] dst, int pos) {
+		bits.init(dst, pos);
+		for (int i = off + len - 1; i >= off; i--) {
+			int s = src[i] & 0xff;
+			bits.write(codes[s], nbBits[s]);
+		}
+		return bits.close();
+	}
+}
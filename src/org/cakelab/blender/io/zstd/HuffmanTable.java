@@ -0,0 +1,139 @@
+package org.cakelab.blender.io.zstd;
+
+import java.io.IOException;
+
+/**
+ * Decoding table of Huffman coded literals.
+ */
+final class HuffmanTable {
+	
+	static final int MAX_BITS = 11;
+	private static final int MAX_SYMBOLS = 256;
+	private static final int WEIGHTS_ACCURACY_LOG = 6;
+	
+	private int maxBits;
+	private final byte[] symbols = new byte[1 << MAX_BITS];
+	private final byte[] nbBits = new byte[1 << MAX_BITS];
+	
+	private final int[] weights = new int[MAX_SYMBOLS + 2];
+	private final int[] rankCount = new int[MAX_BITS + 2];
+	private final int[] rankIndex = new int[MAX_BITS + 2];
+	private final FseTable weightsTable = new FseTable(WEIGHTS_ACCURACY_LOG);
+	private final BackwardBitReader bits = new BackwardBitReader();
+
+	/**
+	 * Reads a Huffman tree description and builds the table.
+	 * @return position after the description.
+	 */
+	int read(byte[] src, int pos, int end) throws IOException {
+		if (pos >= end) throw new IOException("corrupted zstd data: missing Huffman tree description");
+		int header = src[pos++] & 0xff;
+		int count;
+		if (header < 128) {
+			// FSE compressed weights
+			int streamEnd = pos + header;
+			if (streamEnd > end) throw new IOException("corrupted zstd data: Huffman tree description exceeds block");
+			int streamStart = weightsTable.read(src, pos, streamEnd, 255, WEIGHTS_ACCURACY_LOG);
+			bits.init(src, streamStart, streamEnd);
+			int log = weightsTable.accuracyLog;
+			int state1 = bits.read(log);
+			int state2 = bits.read(log);
+			count = 0;
+			while (true) {
+				if (count >= MAX_SYMBOLS - 1) throw new IOException("corrupted zstd data: too many Huffman weights");
+				weights[count++] = weightsTable.symbol[state1];
+				state1 = weightsTable.newState[state1] + bits.read(weightsTable.nbBits[state1]);
+				if (bits.isOverflow()) {
+					weights[count++] = weightsTable.symbol[state2];
+					break;
+				}
+				if (count >= MAX_SYMBOLS - 1) throw new IOException("corrupted zstd data: too many Huffman weights");
+				weights[count++] = weightsTable.symbol[state2];
+				state2 = weightsTable.newState[state2] + bits.read(weightsTable.nbBits[state2]);
+				if (bits.isOverflow()) {
+					weights[count++] = weightsTable.symbol[state1];
+					break;
+				}
+			}
+			pos = streamEnd;
+		} else {
+			// direct representation: 4 bits per weight
+			count = header - 127;
+			int size = (count + 1) / 2;
+			if (pos + size > end) throw new IOException("corrupted zstd data: Huffman tree description exceeds block");
+			for (int i = 0; i < count; i += 2) {
+				int b = src[pos + i / 2] & 0xff;
+				weights[i] = b >>> 4;
+				weights[i + 1] = b & 0xf;
+			}
+			pos += size;
+		}
+		build(count);
+		return pos;
+	}
+
+	/**
+	 * Builds the table from the given number of weights and 
+	 * the implicit weight of the last symbol.
+	 */
+	private void build(int count) throws IOException {
+		int total = 0;
+		for (int i = 0; i < count; i++) {
+			int w = weights[i];
+			if (w > MAX_BITS) throw new IOException("corrupted zstd data: invalid Huffman weight");
+			if (w > 0) total += 1 << (w - 1);
+		}
+		if (total == 0) throw new IOException("corrupted zstd data: invalid Huffman weights");
+		maxBits = 32 - Integer.numberOfLeadingZeros(total);
+		int leftover = (1 << maxBits) - total;
+		if (Integer.bitCount(leftover) != 1 || maxBits > MAX_BITS) {
+			throw new IOException("corrupted zstd data: invalid Huffman weights");
+		}
+		weights[count++] = 32 - Integer.numberOfLeadingZeros(leftover);
+		
+		for (int i = 0; i < rankCount.length; i++) rankCount[i] = 0;
+		for (int i = 0; i < count; i++) {
+			int w = weights[i];
+			int n = w > 0 ? maxBits + 1 - w : 0;
+			weights[i] = n; // from here on: number of bits
+			rankCount[n]++;
+		}
+		
+		rankIndex[maxBits] = 0;
+		for (int n = maxBits; n >= 1; n--) {
+			rankIndex[n - 1] = rankIndex[n] + rankCount[n] * (1 << (maxBits - n));
+			for (int i = rankIndex[n]; i < rankIndex[n - 1]; i++) {
+				nbBits[i] = (byte) n;
+			}
+		}
+		for (int s = 0; s < count; s++) {
+			int n = weights[s];
+			if (n != 0) {
+				int code = rankIndex[n];
+				int len = 1 << (maxBits - n);
+				for (int i = code; i < code + len; i++) {
+					symbols[i] = (byte) s;
+				}
+				rankIndex[n] += len;
+			}
+		}
+	}
+	
+	/**
+	 * Decodes a Huffman coded stream.
+	 * 
+	 * @return position in out after the last decoded symbol.
+	 */
+	int decode(byte[] src, int start, int end, byte[] out, int outPos, int count) throws IOException {
+		bits.init(src, start, end);
+		int mask = (1 << maxBits) - 1;
+		int state = bits.read(maxBits);
+		for (int i = 0; i < count; i++) {
+			out[outPos++] = symbols[state];
+			int n = nbBits[state];
+			state = ((state << n) + bits.read(n)) & mask;
+		}
+		if (bits.remaining() != -maxBits) throw new IOException("corrupted zstd data: invalid Huffman stream");
+		return outPos;
+	}
+}
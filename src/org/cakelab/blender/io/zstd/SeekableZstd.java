@@ -0,0 +1,179 @@
+package org.cakelab.blender.io.zstd;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Random access to the decompressed content of a file in the seekable 
+ * Zstandard format.
+ * <p>
+ * A seekable file consists of independent frames followed by a seek table
+ * in a skippable frame, which lists the compressed and decompressed size
+ * of each frame. Thus, the frame containing a given position of the 
+ * decompressed content can be located without decompressing preceding 
+ * frames. Frames are decompressed on demand and the most recently used 
+ * frames are kept in a cache.
+ * </p>
+ * <p>
+ * Access to frames is synchronized, since the cache and the decoder 
+ * are shared. Thus, concurrent readers (e.g. threads loading lazy blocks)
+ * decompress frames one after another.
+ * </p>
+ */
+public class SeekableZstd implements Closeable {
+	
+	static final int SEEK_TABLE_MAGIC = 0x8F92EAB1;
+	static final int SEEK_TABLE_FRAME_MAGIC = 0x184D2A5E;
+	static final int FOOTER_SIZE = 9;
+	static final int SKIPPABLE_HEADER_SIZE = 8;
+	
+	/** Number of decompressed frames kept in memory */
+	public static final int DEFAULT_CACHE_SIZE = 8;
+	
+	private FileChannel channel;
+	
+	/** compressed start offsets of frames (one more for the end) */
+	private long[] compressedOffsets;
+	/** decompressed start offsets of frames (one more for the end) */
+	private long[] offsets;
+	private int frames;
+	
+	private ZstdFrameDecoder decoder = new ZstdFrameDecoder();
+	private Map<Integer, byte[]> cache;
+
+	
+	private SeekableZstd(FileChannel channel, long[] compressedOffsets, long[] offsets, final int cacheSize) {
+		this.channel = channel;
+		this.compressedOffsets = compressedOffsets;
+		this.offsets = offsets;
+		this.frames = offsets.length - 1;
+		this.cache = new LinkedHashMap<Integer, byte[]>(cacheSize * 2, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, byte[]> eldest) {
+				return size() > cacheSize;
+			}
+		};
+	}
+	
+	/**
+	 * Reads the seek table of the given file.
+	 * 
+	 * @return Seekable file or null, if the file has no seek table.
+	 * @throws IOException
+	 */
+	public static SeekableZstd open(FileChannel channel) throws IOException {
+		return open(channel, DEFAULT_CACHE_SIZE);
+	}
+
+	public static SeekableZstd open(FileChannel channel, int cacheSize) throws IOException {
+		long size = channel.size();
+		if (size < FOOTER_SIZE + SKIPPABLE_HEADER_SIZE) return null;
+		
+		ByteBuffer footer = read(channel, size - FOOTER_SIZE, FOOTER_SIZE);
+		int frames = footer.getInt();
+		int descriptor = footer.get() & 0xff;
+		if (footer.getInt() != SEEK_TABLE_MAGIC || (descriptor & 0x7C) != 0 || frames < 0) return null;
+		int entrySize = (descriptor & 0x80) != 0 ? 12 : 8;
+		long tableSize = (long) frames * entrySize + FOOTER_SIZE;
+		long tableStart = size - tableSize - SKIPPABLE_HEADER_SIZE;
+		if (tableStart < 0 || tableSize > Integer.MAX_VALUE) return null;
+		
+		ByteBuffer table = read(channel, tableStart, (int) (tableSize + SKIPPABLE_HEADER_SIZE));
+		if (table.getInt() != SEEK_TABLE_FRAME_MAGIC || (table.getInt() & 0xFFFFFFFFL) != tableSize) return null;
+		
+		long[] compressedOffsets = new long[frames + 1];
+		long[] offsets = new long[frames + 1];
+		for (int i = 0; i < frames; i++) {
+			compressedOffsets[i + 1] = compressedOffsets[i] + (table.getInt() & 0xFFFFFFFFL);
+			offsets[i + 1] = offsets[i] + (table.getInt() & 0xFFFFFFFFL);
+			if (entrySize == 12) table.getInt();
+		}
+		if (compressedOffsets[frames] != tableStart) {
+			throw new IOException("corrupted zstd data: seek table does not match frames");
+		}
+		return new SeekableZstd(channel, compressedOffsets, offsets, cacheSize);
+	}
+	
+	private static ByteBuffer read(FileChannel channel, long position, int size) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(size);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) throw new EOFException();
+		}
+		buffer.flip();
+		return buffer;
+	}
+	
+	/**
+	 * @return size of the decompressed content.
+	 */
+	public long size() {
+		return offsets[frames];
+	}
+	
+	public int getFrameCount() {
+		return frames;
+	}
+	
+	/**
+	 * @return index of the frame which contains the given position 
+	 * of the decompressed content or -1 if the position is beyond the end.
+	 */
+	public int frameIndex(long position) {
+		if (position < 0 || position >= size()) return -1;
+		int lo = 0;
+		int hi = frames - 1;
+		while (lo < hi) {
+			int mid = (lo + hi + 1) >>> 1;
+			if (offsets[mid] <= position) {
+				lo = mid;
+			} else {
+				hi = mid - 1;
+			}
+		}
+		return lo;
+	}
+	
+	/**
+	 * @return position of the given frame in the decompressed content.
+	 */
+	public long frameStart(int index) {
+		return offsets[index];
+	}
+	
+	/**
+	 * Returns the decompressed content of the given frame.
+	 * The returned array is shared and must not be modified.
+	 */
+	public synchronized byte[] frame(int index) throws IOException {
+		byte[] data = cache.get(index);
+		if (data == null) {
+			if (channel == null) throw new IOException("file has been closed.");
+			long size = offsets[index + 1] - offsets[index];
+			long compressedSize = compressedOffsets[index + 1] - compressedOffsets[index];
+			if (size > Integer.MAX_VALUE || compressedSize > Integer.MAX_VALUE) throw new IOException("zstd frame too large");
+			ByteBuffer compressed = read(channel, compressedOffsets[index], (int) compressedSize);
+			data = new byte[(int) size];
+			decoder.decodeFrame(new ByteArrayInputStream(compressed.array(), 0, compressed.limit()), data);
+			cache.put(index, data);
+		}
+		return data;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		cache.clear();
+		if (channel != null) {
+			channel.close();
+			channel = null;
+		}
+	}
+}
@@ -0,0 +1,111 @@
+package org.cakelab.blender.io.zstd;
+
+/**
+ * Streaming implementation of the XXH64 hash function with seed 0,
+ * used for content checksums of Zstandard frames.
+ */
+final class XXHash64 {
+	private static final long PRIME1 = 0x9E3779B185EBCA87L;
+	private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+	private static final long PRIME3 = 0x165667B19E3779F9L;
+	private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+	private static final long PRIME5 = 0x27D4EB2F165667C5L;
+	
+	private long v1, v2, v3, v4;
+	private long totalLength;
+	private final byte[] pending = new byte[32];
+	private int pendingLength;
+
+	XXHash64() {
+		reset();
+	}
+	
+	void reset() {
+		v1 = PRIME1 + PRIME2;
+		v2 = PRIME2;
+		v3 = 0;
+		v4 = -PRIME1;
+		totalLength = 0;
+		pendingLength = 0;
+	}
+	
+	void update(byte[] b, int off, int len) {
+		totalLength += len;
+		if (pendingLength > 0) {
+			int n = Math.min(32 - pendingLength, len);
+			System.arraycopy(b, off, pending, pendingLength, n);
+			pendingLength += n;
+			off += n;
+			len -= n;
+			if (pendingLength < 32) return;
+			consume(pending, 0);
+			pendingLength = 0;
+		}
+		int end = off + len;
+		for (; off + 32 <= end; off += 32) {
+			consume(b, off);
+		}
+		pendingLength = end - off;
+		System.arraycopy(b, off, pending, 0, pendingLength);
+	}
+	
+	private void consume(byte[] b, int off) {
+		v1 = round(v1, getLong(b, off));
+		v2 = round(v2, getLong(b, off + 8));
+		v3 = round(v3, getLong(b, off + 16));
+		v4 = round(v4, getLong(b, off + 24));
+	}
+
+	long digest() {
+		long h;
+		if (totalLength >= 32) {
+			h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+			h = merge(h, v1);
+			h = merge(h, v2);
+			h = merge(h, v3);
+			h = merge(h, v4);
+		} else {
+			h = PRIME5;
+		}
+		h += totalLength;
+		int i = 0;
+		for (; i + 8 <= pendingLength; i += 8) {
+			h ^= round(0, getLong(pending, i));
+			h = Long.rotateLeft(h, 27) * PRIME1 + PRIME4;
+		}
+		if (i + 4 <= pendingLength) {
+			h ^= (getInt(pending, i) & 0xFFFFFFFFL) * PRIME1;
+			h = Long.rotateLeft(h, 23) * PRIME2 + PRIME3;
+			i += 4;
+		}
+		for (; i < pendingLength; i++) {
+			h ^= (pending[i] & 0xff) * PRIME5;
+			h = Long.rotateLeft(h, 11) * PRIME1;
+		}
+		h ^= h >>> 33;
+		h *= PRIME2;
+		h ^= h >>> 29;
+		h *= PRIME3;
+		h ^= h >>> 32;
+		return h;
+	}
+
+	private static long round(long acc, long input) {
+		acc += input * PRIME2;
+		acc = Long.rotateLeft(acc, 31);
+		return acc * PRIME1;
+	}
+
+	private static long merge(long acc, long v) {
+		acc ^= round(0, v);
+		return acc * PRIME1 + PRIME4;
+	}
+
+	private static long getLong(byte[] b, int i) {
+		return (getInt(b, i) & 0xFFFFFFFFL) | ((long) getInt(b, i + 4) << 32);
+	}
+
+	private static int getInt(byte[] b, int i) {
+		return (b[i] & 0xff) | (b[i + 1] & 0xff) << 8 | (b[i + 2] & 0xff) << 16 | (b[i + 3] & 0xff) << 24;
+	}
+}
@@ -0,0 +1,586 @@
+package org.cakelab.blender.io.zstd;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decoder of Zstandard frames (RFC 8878).
+ * <p>
+ * The decoder reads frames from an {@link InputStream} block by 
+ * block and appends the decompressed data to an output buffer, 
+ * which also serves as the window for back references of later 
+ * blocks. In streaming mode (see {@link ZstdInputStream}), the 
+ * output buffer keeps just the window and older data gets dropped. 
+ * In contrast, {@link #decodeFrame(InputStream, byte[])} decodes 
+ * an entire frame into a given array.
+ * </p>
+ * <p>
+ * Dictionaries are not supported.
+ * </p>
+ */
+final class ZstdFrameDecoder {
+
+	static final int MAGIC = 0xFD2FB528;
+	static final int SKIPPABLE_MAGIC = 0x184D2A50;
+	static final int SKIPPABLE_MAGIC_MASK = 0xFFFFFFF0;
+	
+	static final int MAX_BLOCK_SIZE = 128 * 1024;
+	/** Same limit as the default of the reference implementation */
+	static final long MAX_WINDOW_SIZE = 1L << 27;
+	
+	static final int BLOCK_RAW = 0;
+	static final int BLOCK_RLE = 1;
+	static final int BLOCK_COMPRESSED = 2;
+	
+	static final int LITERALS_RAW = 0;
+	static final int LITERALS_RLE = 1;
+	static final int LITERALS_COMPRESSED = 2;
+	private static final int LITERALS_TREELESS = 3;
+	
+	static final int MODE_PREDEFINED = 0;
+	static final int MODE_RLE = 1;
+	static final int MODE_FSE = 2;
+	private static final int MODE_REPEAT = 3;
+	
+	static final int MAX_LL_SYMBOL = 35;
+	static final int MAX_ML_SYMBOL = 52;
+	static final int MAX_OF_SYMBOL = 31;
+	static final int MAX_LL_LOG = 9;
+	static final int MAX_ML_LOG = 9;
+	static final int MAX_OF_LOG = 8;
+	
+	static final int[] LL_BASE = {
+		0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15,
+		16, 18, 20, 22, 24, 28, 32, 40, 48, 64, 128, 256, 512, 1024, 2048, 4096,
+		8192, 16384, 32768, 65536
+	};
+	static final int[] LL_BITS = {
+		0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+		1, 1, 1, 1, 2, 2, 3, 3, 4, 6, 7, 8, 9, 10, 11, 12,
+		13, 14, 15, 16
+	};
+	static final int[] ML_BASE = {
+		3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18,
+		19, 20, 21, 22, 23, 24, 25, 26, 27, 28, 29, 30, 31, 32, 33, 34,
+		35, 37, 39, 41, 43, 47, 51, 59, 67, 83, 99, 131, 259, 515, 1027, 2051,
+		4099, 8195, 16387, 32771, 65539
+	};
+	static final int[] ML_BITS = {
+		0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+		0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+		1, 1, 1, 1, 2, 2, 3, 3, 4, 4, 5, 7, 8, 9, 10, 11,
+		12, 13, 14, 15, 16
+	};
+	
+	/** predefined distributions of literal lengths, match lengths and offset codes */
+	static final short[] LL_DISTRIBUTION = {
+		4, 3, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 1, 1, 1,
+		2, 2, 2, 2, 2, 2, 2, 2, 2, 3, 2, 1, 1, 1, 1, 1,
+		-1, -1, -1, -1
+	};
+	static final short[] ML_DISTRIBUTION = {
+		1, 4, 3, 2, 2, 2, 2, 2, 2, 1, 1, 1, 1, 1, 1, 1,
+		1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1,
+		1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, -1, -1,
+		-1, -1, -1, -1, -1
+	};
+	static final short[] OF_DISTRIBUTION = {
+		1, 1, 1, 1, 1, 1, 2, 2, 2, 1, 1, 1, 1, 1, 1, 1,
+		1, 1, 1, 1, 1, 1, 1, 1, -1, -1, -1, -1, -1
+	};
+	static final int LL_DISTRIBUTION_LOG = 6;
+	static final int ML_DISTRIBUTION_LOG = 6;
+	static final int OF_DISTRIBUTION_LOG = 5;
+	
+	private static final FseTable LL_PREDEFINED = FseTable.predefined(LL_DISTRIBUTION, LL_DISTRIBUTION_LOG);
+	private static final FseTable ML_PREDEFINED = FseTable.predefined(ML_DISTRIBUTION, ML_DISTRIBUTION_LOG);
+	private static final FseTable OF_PREDEFINED = FseTable.predefined(OF_DISTRIBUTION, OF_DISTRIBUTION_LOG);
+	
+	//
+	// frame state
+	//
+	private long windowSize;
+	private long contentSize;
+	private boolean checksum;
+	private boolean frameFinished = true;
+	private final XXHash64 hash = new XXHash64();
+	private final int[] reps = new int[3];
+
+	private FseTable llTable;
+	private FseTable mlTable;
+	private FseTable ofTable;
+	private final FseTable llDecoded = new FseTable(MAX_LL_LOG);
+	private final FseTable mlDecoded = new FseTable(MAX_ML_LOG);
+	private final FseTable ofDecoded = new FseTable(MAX_OF_LOG);
+	private final HuffmanTable huffman = new HuffmanTable();
+	private boolean huffmanValid;
+	
+	private final BackwardBitReader bits = new BackwardBitReader();
+	private final byte[] input = new byte[MAX_BLOCK_SIZE];
+	private final byte[] literals = new byte[MAX_BLOCK_SIZE];
+	private int literalsLength;
+	
+	//
+	// output
+	//
+	
+	/** decompressed data (window) */
+	private byte[] out;
+	private int outPos;
+	/** true if out was given and must not be reallocated */
+	private boolean fixedOutput;
+	
+	
+	/**
+	 * Reads the header of the next frame. Skippable frames are skipped.
+	 * 
+	 * @return false if the end of the stream has been reached.
+	 */
+	boolean beginFrame(InputStream in) throws IOException {
+		while (true) {
+			int b = in.read();
+			if (b < 0) return false;
+			int magic = b | readIntLE(in, 3) << 8;
+			if ((magic & SKIPPABLE_MAGIC_MASK) == SKIPPABLE_MAGIC) {
+				skipFully(in, readIntLE(in, 4) & 0xFFFFFFFFL);
+				continue;
+			}
+			if (magic != MAGIC) throw new IOException("not a zstd frame");
+			break;
+		}
+		
+		int descriptor = readByte(in);
+		int fcsFlag = descriptor >>> 6;
+		boolean singleSegment = (descriptor & 0x20) != 0;
+		if ((descriptor & 0x08) != 0) throw new IOException("corrupted zstd data: reserved bit set in frame header");
+		checksum = (descriptor & 0x04) != 0;
+		int dictIdFlag = descriptor & 3;
+		
+		windowSize = -1;
+		if (!singleSegment) {
+			int wd = readByte(in);
+			int windowLog = 10 + (wd >>> 3);
+			long windowBase = 1L << windowLog;
+			windowSize = windowBase + (windowBase / 8) * (wd & 7);
+		}
+		if (dictIdFlag != 0) {
+			int size = dictIdFlag == 3 ? 4 : dictIdFlag;
+			if (readIntLE(in, size) != 0) throw new IOException("zstd dictionaries are not supported");
+		}
+		switch (fcsFlag) {
+		case 0:
+			contentSize = singleSegment ? readByte(in) : -1;
+			break;
+		case 1:
+			contentSize = readIntLE(in, 2) + 256;
+			break;
+		case 2:
+			contentSize = readIntLE(in, 4) & 0xFFFFFFFFL;
+			break;
+		default:
+			contentSize = (readIntLE(in, 4) & 0xFFFFFFFFL) | ((long) readIntLE(in, 4) << 32);
+			if (contentSize < 0) throw new IOException("zstd frame too large");
+			break;
+		}
+		if (singleSegment) windowSize = contentSize;
+		
+		if (!fixedOutput) {
+			if (windowSize > MAX_WINDOW_SIZE) throw new IOException("zstd frame requires a window larger than " + MAX_WINDOW_SIZE);
+			int capacity = (int) Math.min(windowSize, 1 << 20) + MAX_BLOCK_SIZE;
+			if (out == null || out.length < capacity) out = new byte[capacity];
+			outPos = 0;
+		}
+		
+		reps[0] = 1;
+		reps[1] = 4;
+		reps[2] = 8;
+		llTable = mlTable = ofTable = null;
+		huffmanValid = false;
+		hash.reset();
+		frameFinished = false;
+		return true;
+	}
+	
+	/**
+	 * Decodes an entire frame into the given array, which must have
+	 * the exact size of the decompressed content.
+	 */
+	void decodeFrame(InputStream in, byte[] dst) throws IOException {
+		out = dst;
+		outPos = 0;
+		fixedOutput = true;
+		try {
+			if (!beginFrame(in)) throw new EOFException();
+			while (!frameFinished) {
+				decodeBlock(in);
+			}
+			if (outPos != dst.length) throw new IOException("corrupted zstd data: unexpected content size");
+		} finally {
+			out = null;
+			fixedOutput = false;
+		}
+	}
+	
+	boolean isFrameFinished() {
+		return frameFinished;
+	}
+
+	/** @return buffer containing the decompressed data */
+	byte[] output() {
+		return out;
+	}
+
+	/** @return end of decompressed data in the output buffer */
+	int position() {
+		return outPos;
+	}
+	
+	/**
+	 * Decodes the next block of the current frame.
+	 * 
+	 * @return position of the first byte of the decompressed data of the block in 
+	 * the output buffer (see {@link #output()}). The position of the end 
+	 * is given by {@link #position()}.
+	 */
+	int decodeBlock(InputStream in) throws IOException {
+		int header = readIntLE(in, 3);
+		boolean last = (header & 1) != 0;
+		int type = (header >>> 1) & 3;
+		int size = header >>> 3;
+		
+		ensureSpace();
+		int start = outPos;
+		switch (type) {
+		case BLOCK_RAW:
+			checkSpace(size);
+			readFully(in, out, outPos, size);
+			outPos += size;
+			break;
+		case BLOCK_RLE:
+			checkSpace(size);
+			byte value = (byte) readByte(in);
+			for (int i = 0; i < size; i++) {
+				out[outPos++] = value;
+			}
+			break;
+		case BLOCK_COMPRESSED:
+			if (size > MAX_BLOCK_SIZE) throw new IOException("corrupted zstd data: block too large");
+			readFully(in, input, 0, size);
+			decodeCompressedBlock(input, 0, size);
+			break;
+		default:
+			throw new IOException("corrupted zstd data: reserved block type");
+		}
+		
+		if (checksum) {
+			hash.update(out, start, outPos - start);
+		}
+		if (last) {
+			if (checksum) {
+				int expected = readIntLE(in, 4);
+				if (expected != (int) hash.digest()) throw new IOException("corrupted zstd data: checksum mismatch");
+			}
+			frameFinished = true;
+		}
+		return start;
+	}
+
+	/**
+	 * Makes sure that there is enough space in the output buffer for 
+	 * another block, while keeping the window. 
+	 */
+	private void ensureSpace() {
+		if (fixedOutput || outPos + MAX_BLOCK_SIZE <= out.length) return;
+		long limit = 2 * windowSize + MAX_BLOCK_SIZE;
+		if (out.length < limit) {
+			int capacity = (int) Math.min(limit, Math.max(2L * out.length, outPos + MAX_BLOCK_SIZE));
+			byte[] tmp = new byte[capacity];
+			System.arraycopy(out, 0, tmp, 0, outPos);
+			out = tmp;
+		} else {
+			// drop data outside of the window
+			int keep = (int) windowSize;
+			System.arraycopy(out, outPos - keep, out, 0, keep);
+			outPos = keep;
+		}
+	}
+	
+	private void checkSpace(int n) throws IOException {
+		if (outPos + n > out.length || n > MAX_BLOCK_SIZE) throw new IOException("corrupted zstd data: block exceeds content size");
+	}
+
+	private void decodeCompressedBlock(byte[] src, int pos, int end) throws IOException {
+		pos = decodeLiterals(src, pos, end);
+		decodeSequences(src, pos, end);
+	}
+
+	private int decodeLiterals(byte[] src, int pos, int end) throws IOException {
+		if (pos >= end) throw new IOException("corrupted zstd data: missing literals section");
+		int b0 = src[pos] & 0xff;
+		int type = b0 & 3;
+		int sizeFormat = (b0 >>> 2) & 3;
+		int regenerated;
+		int compressed = 0;
+		int streams = 1;
+		if (type == LITERALS_RAW || type == LITERALS_RLE) {
+			switch (sizeFormat) {
+			case 0:
+			case 2:
+				regenerated = b0 >>> 3;
+				pos += 1;
+				break;
+			case 1:
+				regenerated = (b0 >>> 4) + ((src[pos + 1] & 0xff) << 4);
+				pos += 2;
+				break;
+			default:
+				regenerated = (b0 >>> 4) + ((src[pos + 1] & 0xff) << 4) + ((src[pos + 2] & 0xff) << 12);
+				pos += 3;
+				break;
+			}
+		} else {
+			long header;
+			switch (sizeFormat) {
+			case 0:
+			case 1:
+				streams = sizeFormat == 0 ? 1 : 4;
+				header = getLE(src, pos, 3, end);
+				regenerated = (int) ((header >>> 4) & 0x3FF);
+				compressed = (int) ((header >>> 14) & 0x3FF);
+				pos += 3;
+				break;
+			case 2:
+				streams = 4;
+				header = getLE(src, pos, 4, end);
+				regenerated = (int) ((header >>> 4) & 0x3FFF);
+				compressed = (int) ((header >>> 18) & 0x3FFF);
+				pos += 4;
+				break;
+			default:
+				streams = 4;
+				header = getLE(src, pos, 5, end);
+				regenerated = (int) ((header >>> 4) & 0x3FFFF);
+				compressed = (int) ((header >>> 22) & 0x3FFFF);
+				pos += 5;
+				break;
+			}
+		}
+		if (regenerated > MAX_BLOCK_SIZE) throw new IOException("corrupted zstd data: literals section too large");
+		literalsLength = regenerated;
+		
+		switch (type) {
+		case LITERALS_RAW:
+			if (pos + regenerated > end) throw new IOException("corrupted zstd data: literals exceed block");
+			System.arraycopy(src, pos, literals, 0, regenerated);
+			return pos + regenerated;
+		case LITERALS_RLE:
+			if (pos >= end) throw new IOException("corrupted zstd data: literals exceed block");
+			byte value = src[pos];
+			for (int i = 0; i < regenerated; i++) {
+				literals[i] = value;
+			}
+			return pos + 1;
+		default:
+			int streamsEnd = pos + compressed;
+			if (streamsEnd > end) throw new IOException("corrupted zstd data: literals exceed block");
+			if (type == LITERALS_COMPRESSED) {
+				pos = huffman.read(src, pos, streamsEnd);
+				huffmanValid = true;
+			} else if (!huffmanValid) {
+				throw new IOException("corrupted zstd data: missing Huffman table");
+			}
+			if (streams == 1) {
+				huffman.decode(src, pos, streamsEnd, literals, 0, regenerated);
+			} else {
+				if (pos + 6 > streamsEnd) throw new IOException("corrupted zstd data: missing jump table");
+				int size1 = (int) getLE(src, pos, 2, end);
+				int size2 = (int) getLE(src, pos + 2, 2, end);
+				int size3 = (int) getLE(src, pos + 4, 2, end);
+				int start1 = pos + 6;
+				int start2 = start1 + size1;
+				int start3 = start2 + size2;
+				int start4 = start3 + size3;
+				if (start4 > streamsEnd) throw new IOException("corrupted zstd data: invalid jump table");
+				int segment = (regenerated + 3) / 4;
+				if (3 * segment > regenerated) throw new IOException("corrupted zstd data: invalid literals size");
+				int o = huffman.decode(src, start1, start2, literals, 0, segment);
+				o = huffman.decode(src, start2, start3, literals, o, segment);
+				o = huffman.decode(src, start3, start4, literals, o, segment);
+				huffman.decode(src, start4, streamsEnd, literals, o, regenerated - 3 * segment);
+			}
+			return streamsEnd;
+		}
+	}
+
+	private void decodeSequences(byte[] src, int pos, int end) throws IOException {
+		if (pos >= end) throw new IOException("corrupted zstd data: missing sequences section");
+		int b0 = src[pos++] & 0xff;
+		int count;
+		if (b0 == 0) {
+			count = 0;
+		} else if (b0 < 128) {
+			count = b0;
+		} else if (b0 < 255) {
+			if (pos >= end) throw new IOException("corrupted zstd data: sequences section header");
+			count = ((b0 - 128) << 8) + (src[pos++] & 0xff);
+		} else {
+			if (pos + 1 >= end) throw new IOException("corrupted zstd data: sequences section header");
+			count = (src[pos] & 0xff) + ((src[pos + 1] & 0xff) << 8) + 0x7F00;
+			pos += 2;
+		}
+		
+		int litPos = 0;
+		if (count > 0) {
+			if (pos >= end) throw new IOException("corrupted zstd data: sequences section header");
+			int modes = src[pos++] & 0xff;
+			if ((modes & 3) != 0) throw new IOException("corrupted zstd data: reserved bits in sequences section header");
+			pos = selectTable(src, pos, end, (modes >>> 6) & 3, 0);
+			pos = selectTable(src, pos, end, (modes >>> 4) & 3, 1);
+			pos = selectTable(src, pos, end, (modes >>> 2) & 3, 2);
+			
+			bits.init(src, pos, end);
+			int llState = bits.read(llTable.accuracyLog);
+			int ofState = bits.read(ofTable.accuracyLog);
+			int mlState = bits.read(mlTable.accuracyLog);
+			
+			for (int i = 0; i < count; i++) {
+				int ofCode = ofTable.symbol[ofState];
+				int llCode = llTable.symbol[llState];
+				int mlCode = mlTable.symbol[mlState];
+				if (ofCode > MAX_OF_SYMBOL || llCode > MAX_LL_SYMBOL || mlCode > MAX_ML_SYMBOL) {
+					throw new IOException("corrupted zstd data: invalid sequence code");
+				}
+				
+				long offsetValue = (1L << ofCode) + (bits.read(ofCode) & 0xFFFFFFFFL);
+				int matchLength = ML_BASE[mlCode] + bits.read(ML_BITS[mlCode]);
+				int literalLength = LL_BASE[llCode] + bits.read(LL_BITS[llCode]);
+				
+				if (i + 1 < count) {
+					llState = llTable.newState[llState] + bits.read(llTable.nbBits[llState]);
+					mlState = mlTable.newState[mlState] + bits.read(mlTable.nbBits[mlState]);
+					ofState = ofTable.newState[ofState] + bits.read(ofTable.nbBits[ofState]);
+				}
+				
+				int offset;
+				if (offsetValue > 3) {
+					offset = (int) Math.min(offsetValue - 3, Integer.MAX_VALUE);
+					reps[2] = reps[1];
+					reps[1] = reps[0];
+					reps[0] = offset;
+				} else {
+					int idx = (int) offsetValue - 1;
+					if (literalLength == 0) idx++;
+					if (idx == 0) {
+						offset = reps[0];
+					} else {
+						offset = idx < 3 ? reps[idx] : reps[0] - 1;
+						if (idx > 1) reps[2] = reps[1];
+						reps[1] = reps[0];
+						reps[0] = offset;
+					}
+				}
+				
+				// execute sequence
+				if (litPos + literalLength > literalsLength) throw new IOException("corrupted zstd data: literals exhausted");
+				checkSpace(literalLength + matchLength);
+				System.arraycopy(literals, litPos, out, outPos, literalLength);
+				litPos += literalLength;
+				outPos += literalLength;
+				
+				if (offset <= 0 || offset > outPos) throw new IOException("corrupted zstd data: invalid match offset");
+				int from = outPos - offset;
+				if (offset >= matchLength) {
+					System.arraycopy(out, from, out, outPos, matchLength);
+					outPos += matchLength;
+				} else {
+					for (int j = 0; j < matchLength; j++) {
+						out[outPos++] = out[from++];
+					}
+				}
+			}
+			if (bits.remaining() != 0) throw new IOException("corrupted zstd data: invalid sequences bit stream");
+		}
+		
+		// remaining literals
+		int remaining = literalsLength - litPos;
+		checkSpace(remaining);
+		System.arraycopy(literals, litPos, out, outPos, remaining);
+		outPos += remaining;
+	}
+
+	/**
+	 * Selects the decoding table for literal lengths (0), offsets (1) or match lengths (2).
+	 * @return position after a table description if any.
+	 */
+	private int selectTable(byte[] src, int pos, int end, int mode, int kind) throws IOException {
+		FseTable table;
+		switch (mode) {
+		case MODE_PREDEFINED:
+			table = kind == 0 ? LL_PREDEFINED : kind == 1 ? OF_PREDEFINED : ML_PREDEFINED;
+			break;
+		case MODE_RLE:
+			if (pos >= end) throw new IOException("corrupted zstd data: missing RLE symbol");
+			table = kind == 0 ? llDecoded : kind == 1 ? ofDecoded : mlDecoded;
+			table.rle(src[pos++] & 0xff);
+			break;
+		case MODE_FSE:
+			table = kind == 0 ? llDecoded : kind == 1 ? ofDecoded : mlDecoded;
+			int maxSymbol = kind == 0 ? MAX_LL_SYMBOL : kind == 1 ? MAX_OF_SYMBOL : MAX_ML_SYMBOL;
+			int maxLog = kind == 0 ? MAX_LL_LOG : kind == 1 ? MAX_OF_LOG : MAX_ML_LOG;
+			pos = table.read(src, pos, end, maxSymbol, maxLog);
+			break;
+		default:
+			table = kind == 0 ? llTable : kind == 1 ? ofTable : mlTable;
+			if (table == null) throw new IOException("corrupted zstd data: missing table for repeat mode");
+			break;
+		}
+		if (kind == 0) llTable = table;
+		else if (kind == 1) ofTable = table;
+		else mlTable = table;
+		return pos;
+	}
+
+	private static long getLE(byte[] src, int pos, int n, int end) throws IOException {
+		if (pos + n > end) throw new IOException("corrupted zstd data: unexpected end of block");
+		long value = 0;
+		for (int i = n - 1; i >= 0; i--) {
+			value = (value << 8) | (src[pos + i] & 0xff);
+		}
+		return value;
+	}
+	
+	private static int readByte(InputStream in) throws IOException {
+		int b = in.read();
+		if (b < 0) throw new EOFException();
+		return b;
+	}
+
+	private static int readIntLE(InputStream in, int n) throws IOException {
+		int value = 0;
+		for (int i = 0; i < n; i++) {
+			value |= readByte(in) << (8 * i);
+		}
+		return value;
+	}
+	
+	private static void readFully(InputStream in, byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			int read = in.read(b, off, len);
+			if (read < 0) throw new EOFException();
+			off += read;
+			len -= read;
+		}
+	}
+	
+	private static void skipFully(InputStream in, long n) throws IOException {
+		while (n > 0) {
+			long skipped = in.skip(n);
+			if (skipped <= 0) {
+				if (in.read() < 0) throw new EOFException();
+				skipped = 1;
+			}
+			n -= skipped;
+		}
+	}
+}
@@ -0,0 +1,646 @@
+package org.cakelab.blender.io.zstd;
+
+import java.util.Arrays;
+
+/**
+ * Encoder of Zstandard frames (RFC 8878).
+ * <p>
+ * The encoder compresses an entire array into a single frame with
+ * content size and content checksum. The frame is a single segment,
+ * i.e. the window covers the entire frame and matches may refer to
+ * any earlier data of the frame. Thus, frames can be decompressed
+ * independent of each other.
+ * </p>
+ * <p>
+ * Matches are found through a hash table of 4 byte sequences. Higher
+ * levels follow hash chains to find longer matches and defer matches
+ * if the next position provides a better one (lazy matching).
+ * Literals are stored uncompressed and sequences are coded with the
+ * predefined FSE tables. Blocks which contain a single repeated byte
+ * are stored as RLE blocks and blocks which don't compress are stored
+ * raw.
+ * </p>
+ * <p>
+ * An instance is not thread safe but can be reused for any number of
+ * frames.
+ * </p>
+ */
+final class ZstdFrameEncoder {
+
+	static final int MIN_LEVEL = 1;
+	static final int MAX_LEVEL = 22;
+	static final int DEFAULT_LEVEL = 3;
+
+	private static final int MAX_BLOCK_SIZE = ZstdFrameDecoder.MAX_BLOCK_SIZE;
+	private static final int MIN_MATCH = 4;
+	/** minimum number of literals to try Huffman coding */
+	private static final int MIN_HUFFMAN_LITERALS = 64;
+	/** minimum number of sequences to try a table described in the block */
+	private static final int MIN_FSE_SEQUENCES = 8;
+
+	private static final int LITERALS_RAW = ZstdFrameDecoder.LITERALS_RAW;
+	private static final int LITERALS_RLE = ZstdFrameDecoder.LITERALS_RLE;
+	private static final int LITERALS_COMPRESSED = ZstdFrameDecoder.LITERALS_COMPRESSED;
+
+	private static final int MODE_PREDEFINED = ZstdFrameDecoder.MODE_PREDEFINED;
+	private static final int MODE_RLE = ZstdFrameDecoder.MODE_RLE;
+	private static final int MODE_FSE = ZstdFrameDecoder.MODE_FSE;
+
+	private static final int MAX_LL_SYMBOL = ZstdFrameDecoder.MAX_LL_SYMBOL;
+	private static final int MAX_ML_SYMBOL = ZstdFrameDecoder.MAX_ML_SYMBOL;
+	private static final int MAX_OF_SYMBOL = ZstdFrameDecoder.MAX_OF_SYMBOL;
+	private static final int MAX_LL_LOG = ZstdFrameDecoder.MAX_LL_LOG;
+	private static final int MAX_ML_LOG = ZstdFrameDecoder.MAX_ML_LOG;
+	private static final int MAX_OF_LOG = ZstdFrameDecoder.MAX_OF_LOG;
+	/** maximum size of a frame header plus block header and checksum */
+	private static final int MAX_OVERHEAD = 32;
+
+	private static final FseEncodingTable LL_TABLE = new FseEncodingTable(ZstdFrameDecoder.LL_DISTRIBUTION, ZstdFrameDecoder.LL_DISTRIBUTION_LOG);
+	private static final FseEncodingTable ML_TABLE = new FseEncodingTable(ZstdFrameDecoder.ML_DISTRIBUTION, ZstdFrameDecoder.ML_DISTRIBUTION_LOG);
+	private static final FseEncodingTable OF_TABLE = new FseEncodingTable(ZstdFrameDecoder.OF_DISTRIBUTION, ZstdFrameDecoder.OF_DISTRIBUTION_LOG);
+
+	/** literal length codes of lengths below 64 */
+	private static final byte[] LL_CODES = codes(ZstdFrameDecoder.LL_BASE, 0, 64);
+	/** match length codes of lengths below 131 (minus 3) */
+	private static final byte[] ML_CODES = codes(ZstdFrameDecoder.ML_BASE, 3, 128);
+
+	//
+	// parameters
+	//
+	private final int hashLog;
+	private final int searchDepth;
+	private final boolean lazy;
+	/** skip faster over data without matches, the lower the value */
+	private final int skipStrength;
+	/** length of a match, which stops the search */
+	private final int niceLength;
+
+	//
+	// frame state
+	//
+	private byte[] src;
+	private int frameStart;
+	private int frameEnd;
+	private final int[] hashTable;
+	/** previous position with the same hash (relative to frame start) or null */
+	private int[] chainTable;
+	/** next position to be inserted in the hash table */
+	private int nextInsert;
+	private final int[] reps = new int[3];
+	private final XXHash64 hash = new XXHash64();
+
+	//
+	// block state
+	//
+	private final byte[] literals = new byte[MAX_BLOCK_SIZE];
+	private int literalsLength;
+	private final int[] litLengths = new int[MAX_BLOCK_SIZE / MIN_MATCH + 1];
+	private final int[] matchLengths = new int[MAX_BLOCK_SIZE / MIN_MATCH + 1];
+	private final int[] offsets = new int[MAX_BLOCK_SIZE / MIN_MATCH + 1];
+	private int sequences;
+	/** compressed block (worst case of sequences and literals of a block) */
+	private final byte[] block = new byte[4 * MAX_BLOCK_SIZE];
+	private int blockPos;
+	private final BackwardBitWriter bits = new BackwardBitWriter();
+	private final byte[] llCodes = new byte[MAX_BLOCK_SIZE / MIN_MATCH + 1];
+	private final byte[] mlCodes = new byte[MAX_BLOCK_SIZE / MIN_MATCH + 1];
+	private final byte[] ofCodes = new byte[MAX_BLOCK_SIZE / MIN_MATCH + 1];
+	private final int[] codeCounts = new int[MAX_ML_SYMBOL + 1];
+	/** mode of the table selected by {@link #selectTable(byte[], int, int, FseEncodingTable, short[])} */
+	private int tableMode;
+	private final int[] literalCounts = new int[256];
+	private final HuffmanEncodingTable huffman = new HuffmanEncodingTable();
+
+	//
+	// output
+	//
+	private byte[] out = new byte[0];
+	private int outPos;
+
+
+	/**
+	 * @param level compression level from {@link #MIN_LEVEL} to {@link #MAX_LEVEL}
+	 */
+	ZstdFrameEncoder(int level) {
+		level = Math.max(MIN_LEVEL, Math.min(MAX_LEVEL, level));
+		hashLog = level < 2 ? 16 : level < 6 ? 17 : level < 10 ? 18 : 19;
+		searchDepth = level < 2 ? 1 : 1 << ((level + 1) / 2);
+		lazy = level >= 5;
+		skipStrength = level < 2 ? 6 : level < 10 ? 8 : 31;
+		niceLength = Math.min(16 << (level / 3), 4096);
+		hashTable = new int[1 << hashLog];
+	}
+
+	/**
+	 * @return maximum size of a frame containing the given amount of data.
+	 */
+	static int maxFrameSize(int length) {
+		return length + 3 * (length / MAX_BLOCK_SIZE) + MAX_OVERHEAD;
+	}
+
+	/**
+	 * Compresses the given data into a single frame.
+	 *
+	 * @return the frame
+	 */
+	byte[] encode(byte[] src, int off, int len) {
+		int capacity = maxFrameSize(len);
+		if (out.length < capacity) out = new byte[capacity];
+		outPos = 0;
+
+		this.src = src;
+		frameStart = off;
+		frameEnd = off + len;
+		Arrays.fill(hashTable, -1);
+		if (searchDepth > 1 && (chainTable == null || chainTable.length < len)) {
+			chainTable = new int[len];
+		}
+		nextInsert = off;
+		reps[0] = 1;
+		reps[1] = 4;
+		reps[2] = 8;
+		hash.reset();
+		hash.update(src, off, len);
+
+		writeFrameHeader(len);
+		if (len == 0) {
+			writeBlockHeader(true, ZstdFrameDecoder.BLOCK_RAW, 0);
+		}
+		for (int start = off; start < frameEnd; start += MAX_BLOCK_SIZE) {
+			int end = Math.min(start + MAX_BLOCK_SIZE, frameEnd);
+			encodeBlock(start, end, end == frameEnd);
+		}
+		writeIntLE((int) hash.digest());
+
+		this.src = null;
+		return Arrays.copyOf(out, outPos);
+	}
+
+	private void writeFrameHeader(int len) {
+		writeIntLE(ZstdFrameDecoder.MAGIC);
+		// single segment and content checksum
+		int descriptor = 0x20 | 0x04;
+		if (len < 256) {
+			out[outPos++] = (byte) descriptor;
+			out[outPos++] = (byte) len;
+		} else if (len < 65536 + 256) {
+			out[outPos++] = (byte) (descriptor | 1 << 6);
+			out[outPos++] = (byte) (len - 256);
+			out[outPos++] = (byte) ((len - 256) >>> 8);
+		} else {
+			out[outPos++] = (byte) (descriptor | 2 << 6);
+			writeIntLE(len);
+		}
+	}
+
+	private void writeBlockHeader(boolean last, int type, int size) {
+		int header = (last ? 1 : 0) | type << 1 | size << 3;
+		out[outPos++] = (byte) header;
+		out[outPos++] = (byte) (header >>> 8);
+		out[outPos++] = (byte) (header >>> 16);
+	}
+
+	private void writeIntLE(int value) {
+		out[outPos++] = (byte) value;
+		out[outPos++] = (byte) (value >>> 8);
+		out[outPos++] = (byte) (value >>> 16);
+		out[outPos++] = (byte) (value >>> 24);
+	}
+
+	private void encodeBlock(int start, int end, boolean last) {
+		int size = end - start;
+		if (isRle(start, end)) {
+			writeBlockHeader(last, ZstdFrameDecoder.BLOCK_RLE, size);
+			out[outPos++] = src[start];
+			return;
+		}
+
+		findSequences(start, end);
+		int rep0 = reps[0];
+		int rep1 = reps[1];
+		int rep2 = reps[2];
+		int compressed = compressBlock();
+		if (compressed < size) {
+			writeBlockHeader(last, ZstdFrameDecoder.BLOCK_COMPRESSED, compressed);
+			System.arraycopy(block, 0, out, outPos, compressed);
+			outPos += compressed;
+		} else {
+			// repeat offsets are not updated by raw blocks
+			reps[0] = rep0;
+			reps[1] = rep1;
+			reps[2] = rep2;
+			writeBlockHeader(last, ZstdFrameDecoder.BLOCK_RAW, size);
+			System.arraycopy(src, start, out, outPos, size);
+			outPos += size;
+		}
+	}
+
+	private boolean isRle(int start, int end) {
+		byte value = src[start];
+		for (int i = start + 1; i < end; i++) {
+			if (src[i] != value) return false;
+		}
+		return true;
+	}
+
+
+	/* ********************************************
+	 *     match finding
+	 */
+
+	/**
+	 * Splits the given range of the frame into sequences of literals
+	 * and matches. Matches end within the block.
+	 */
+	private void findSequences(int start, int end) {
+		sequences = 0;
+		literalsLength = 0;
+		int anchor = start;
+		int p = start;
+		int limit = end - MIN_MATCH;
+		int rep = reps[0];
+		while (p <= limit) {
+			long match = findMatch(p, end, rep);
+			int length = (int) match;
+			if (length < MIN_MATCH) {
+				p += 1 + ((p - anchor) >> skipStrength);
+				continue;
+			}
+			int offset = (int) (match >>> 32);
+
+			if (lazy) {
+				while (p < limit) {
+					long next = findMatch(p + 1, end, rep);
+					int nextLength = (int) next;
+					int nextOffset = (int) (next >>> 32);
+					if (nextLength >= MIN_MATCH && gain(nextLength, nextOffset) > gain(length, offset) + 4) {
+						p++;
+						length = nextLength;
+						offset = nextOffset;
+					} else {
+						break;
+					}
+				}
+			}
+
+			// extend backwards
+			while (p > anchor && p - offset > frameStart && src[p - 1] == src[p - 1 - offset]) {
+				p--;
+				length++;
+			}
+
+			System.arraycopy(src, anchor, literals, literalsLength, p - anchor);
+			literalsLength += p - anchor;
+			litLengths[sequences] = p - anchor;
+			matchLengths[sequences] = length;
+			offsets[sequences] = offset;
+			sequences++;
+
+			rep = offset;
+			p += length;
+			anchor = p;
+		}
+		System.arraycopy(src, anchor, literals, literalsLength, end - anchor);
+		literalsLength += end - anchor;
+	}
+
+	/**
+	 * Estimated benefit of a match in 1/4 bytes.
+	 */
+	private static int gain(int length, int offset) {
+		return 4 * length - (31 - Integer.numberOfLeadingZeros(offset + 1));
+	}
+
+	/**
+	 * Searches the longest match at the given position, which ends
+	 * before the given end.
+	 *
+	 * @return offset (upper 32 bit) and length (lower 32 bit) of the
+	 * match, length is 0 if none was found.
+	 */
+	private long findMatch(int p, int end, int rep) {
+		insert(p);
+		int nice = Math.min(niceLength, end - p);
+		int bestLength = 0;
+		int bestOffset = 0;
+		if (p - rep >= frameStart && getIntLE(p - rep) == getIntLE(p)) {
+			bestLength = MIN_MATCH + matchLength(p - rep + MIN_MATCH, p + MIN_MATCH, end);
+			bestOffset = rep;
+		}
+		if (bestLength < nice) {
+			int candidate = hashTable[hash(p)];
+			for (int depth = searchDepth; candidate >= frameStart && depth > 0; depth--) {
+				if (src[candidate + bestLength] == src[p + bestLength] || bestLength == 0) {
+					int length = matchLength(candidate, p, end);
+					// candidates get more distant, thus more expensive
+					if (length > bestLength && (bestLength == 0 || gain(length, p - candidate) > gain(bestLength, bestOffset))) {
+						bestLength = length;
+						bestOffset = p - candidate;
+						if (length >= nice) break;
+					}
+				}
+				candidate = chainTable != null ? chainTable[candidate - frameStart] : -1;
+			}
+		}
+		return (long) bestOffset << 32 | bestLength;
+	}
+
+	/**
+	 * Inserts all positions before the given position into the hash table.
+	 */
+	private void insert(int p) {
+		int last = Math.min(p, frameEnd - MIN_MATCH + 1);
+		for (int i = nextInsert; i < last; i++) {
+			int h = hash(i);
+			if (chainTable != null) chainTable[i - frameStart] = hashTable[h];
+			hashTable[h] = i;
+		}
+		nextInsert = Math.max(nextInsert, last);
+	}
+
+	private int hash(int p) {
+		return (getIntLE(p) * 0x9E3779B1) >>> (32 - hashLog);
+	}
+
+	private int getIntLE(int p) {
+		return (src[p] & 0xff) | (src[p + 1] & 0xff) << 8 | (src[p + 2] & 0xff) << 16 | src[p + 3] << 24;
+	}
+
+	private int matchLength(int a, int b, int end) {
+		int start = b;
+		while (b < end && src[a] == src[b]) {
+			a++;
+			b++;
+		}
+		return b - start;
+	}
+
+
+	/* ********************************************
+	 *     block encoding
+	 */
+
+	/**
+	 * Encodes literals and sequences of the current block.
+	 *
+	 * @return size of the compressed block
+	 */
+	private int compressBlock() {
+		int pos = writeLiterals();
+
+		// sequences section header
+		if (sequences < 128) {
+			block[pos++] = (byte) sequences;
+		} else if (sequences < 0x7F00) {
+			block[pos++] = (byte) ((sequences >>> 8) + 128);
+			block[pos++] = (byte) sequences;
+		} else {
+			block[pos++] = (byte) 255;
+			block[pos++] = (byte) (sequences - 0x7F00);
+			block[pos++] = (byte) ((sequences - 0x7F00) >>> 8);
+		}
+		if (sequences == 0) return pos;
+
+		// offset values depend on repeat offsets in order of the sequences
+		for (int i = 0; i < sequences; i++) {
+			offsets[i] = offsetValue(offsets[i], litLengths[i]);
+			llCodes[i] = (byte) llCode(litLengths[i]);
+			mlCodes[i] = (byte) mlCode(matchLengths[i]);
+			ofCodes[i] = (byte) (31 - Integer.numberOfLeadingZeros(offsets[i]));
+		}
+
+		int modes = pos++;
+		blockPos = pos;
+		FseEncodingTable llTable = selectTable(llCodes, MAX_LL_SYMBOL, MAX_LL_LOG, LL_TABLE, ZstdFrameDecoder.LL_DISTRIBUTION);
+		int llMode = tableMode;
+		FseEncodingTable ofTable = selectTable(ofCodes, MAX_OF_SYMBOL, MAX_OF_LOG, OF_TABLE, ZstdFrameDecoder.OF_DISTRIBUTION);
+		int ofMode = tableMode;
+		FseEncodingTable mlTable = selectTable(mlCodes, MAX_ML_SYMBOL, MAX_ML_LOG, ML_TABLE, ZstdFrameDecoder.ML_DISTRIBUTION);
+		int mlMode = tableMode;
+		block[modes] = (byte) (llMode << 6 | ofMode << 4 | mlMode << 2);
+
+		bits.init(block, blockPos);
+		int last = sequences - 1;
+		int llState = llTable.init(llCodes[last]);
+		int mlState = mlTable.init(mlCodes[last]);
+		int ofState = ofTable.init(ofCodes[last]);
+		writeExtraBits(last);
+		for (int i = last - 1; i >= 0; i--) {
+			ofState = ofTable.encode(bits, ofState, ofCodes[i]);
+			mlState = mlTable.encode(bits, mlState, mlCodes[i]);
+			llState = llTable.encode(bits, llState, llCodes[i]);
+			writeExtraBits(i);
+		}
+		mlTable.flush(bits, mlState);
+		ofTable.flush(bits, ofState);
+		llTable.flush(bits, llState);
+		return bits.close();
+	}
+
+	/**
+	 * Writes the literals section of the current block, either 
+	 * Huffman coded, as RLE or raw, whichever is smallest.
+	 * 
+	 * @return position after the literals section
+	 */
+	private int writeLiterals() {
+		int n = literalsLength;
+		if (n > 0) {
+			Arrays.fill(literalCounts, 0);
+			for (int i = 0; i < n; i++) {
+				literalCounts[literals[i] & 0xff]++;
+			}
+			if (literalCounts[literals[0] & 0xff] == n) {
+				int pos = writeLiteralsHeader(LITERALS_RLE, n);
+				block[pos++] = literals[0];
+				return pos;
+			}
+			if (n >= MIN_HUFFMAN_LITERALS) {
+				int pos = writeHuffmanLiterals(n);
+				if (pos > 0) return pos;
+			}
+		}
+		int pos = writeLiteralsHeader(LITERALS_RAW, n);
+		System.arraycopy(literals, 0, block, pos, n);
+		return pos + n;
+	}
+
+	/**
+	 * Writes the header of raw or RLE literals.
+	 */
+	private int writeLiteralsHeader(int type, int n) {
+		int pos = 0;
+		if (n < 32) {
+			block[pos++] = (byte) (type | n << 3);
+		} else if (n < 4096) {
+			block[pos++] = (byte) (type | 1 << 2 | n << 4);
+			block[pos++] = (byte) (n >>> 4);
+		} else {
+			block[pos++] = (byte) (type | 3 << 2 | n << 4);
+			block[pos++] = (byte) (n >>> 4);
+			block[pos++] = (byte) (n >>> 12);
+		}
+		return pos;
+	}
+
+	/**
+	 * Writes Huffman coded literals (in four streams).
+	 * 
+	 * @return position after the literals section or -1 if Huffman 
+	 * coding is not smaller than raw literals.
+	 */
+	private int writeHuffmanLiterals(int n) {
+		huffman.build(literalCounts);
+		// estimate (without tree description and jump table)
+		if (huffman.cost(literalCounts) / 8 + 6 >= n) return -1;
+
+		// header has at most 5 bytes
+		int start = 5;
+		int pos = huffman.writeDescription(block, start);
+		if (pos < 0) return -1;
+		int segment = (n + 3) / 4;
+		int jumpTable = pos;
+		pos += 6;
+		for (int i = 0; i < 4; i++) {
+			int begin = i * segment;
+			int streamStart = pos;
+			pos = huffman.encode(literals, begin, Math.min(segment, n - begin), block, pos);
+			if (i < 3) {
+				block[jumpTable + 2 * i] = (byte) (pos - streamStart);
+				block[jumpTable + 2 * i + 1] = (byte) ((pos - streamStart) >>> 8);
+			}
+		}
+		int compressed = pos - start;
+		
+		long header;
+		int headerSize;
+		if (n < 1024 && compressed < 1024) {
+			header = LITERALS_COMPRESSED | 1 << 2 | n << 4 | (long) compressed << 14;
+			headerSize = 3;
+		} else if (n < 16384 && compressed < 16384) {
+			header = LITERALS_COMPRESSED | 2 << 2 | n << 4 | (long) compressed << 18;
+			headerSize = 4;
+		} else {
+			header = LITERALS_COMPRESSED | 3 << 2 | (long) n << 4 | (long) compressed << 22;
+			headerSize = 5;
+		}
+		if (headerSize + compressed >= n + 3) return -1;
+		for (int i = 0; i < headerSize; i++) {
+			block[i] = (byte) (header >>> (8 * i));
+		}
+		System.arraycopy(block, start, block, headerSize, compressed);
+		return headerSize + compressed;
+	}
+
+	/**
+	 * Selects the table to encode the given codes of all sequences:
+	 * the predefined table, a single symbol (RLE) or a table described 
+	 * in the block, whichever is expected to be smallest. The description
+	 * or symbol is written to the block at {@link #blockPos}.
+	 * The mode of the table is stored in {@link #tableMode}.
+	 */
+	private FseEncodingTable selectTable(byte[] codes, int maxSymbol, int maxLog, FseEncodingTable predefined, short[] distribution) {
+		Arrays.fill(codeCounts, 0);
+		int max = 0;
+		for (int i = 0; i < sequences; i++) {
+			int code = codes[i];
+			codeCounts[code]++;
+			max = Math.max(max, code);
+		}
+		if (codeCounts[codes[0]] == sequences && sequences > 2) {
+			tableMode = MODE_RLE;
+			block[blockPos++] = codes[0];
+			short[] norm = new short[max + 1];
+			norm[max] = 1;
+			return new FseEncodingTable(norm, 0);
+		}
+		
+		double predefinedCost = FseEncodingTable.cost(codeCounts, max, distribution, predefined.accuracyLog);
+		if (sequences > MIN_FSE_SEQUENCES && codeCounts[codes[0]] != sequences) {
+			int log = FseEncodingTable.optimalAccuracyLog(sequences, max, maxLog);
+			short[] norm = FseEncodingTable.normalize(codeCounts, max, sequences, log);
+			int end = FseEncodingTable.writeDescription(norm, log, block, blockPos);
+			double cost = FseEncodingTable.cost(codeCounts, max, norm, log) + 8 * (end - blockPos);
+			if (cost < predefinedCost) {
+				tableMode = MODE_FSE;
+				blockPos = end;
+				return new FseEncodingTable(norm, log);
+			}
+		}
+		tableMode = MODE_PREDEFINED;
+		return predefined;
+	}
+
+	private void writeExtraBits(int i) {
+		int llCode = llCodes[i];
+		int mlCode = mlCodes[i];
+		int ofCode = ofCodes[i];
+		bits.write(litLengths[i] - ZstdFrameDecoder.LL_BASE[llCode], ZstdFrameDecoder.LL_BITS[llCode]);
+		bits.write(matchLengths[i] - ZstdFrameDecoder.ML_BASE[mlCode], ZstdFrameDecoder.ML_BITS[mlCode]);
+		bits.write(offsets[i] - (1 << ofCode), ofCode);
+	}
+
+	/**
+	 * Determines the offset value of a match, which refers to a repeat
+	 * offset if possible, and updates the repeat offsets the same way
+	 * as the decoder.
+	 */
+	private int offsetValue(int offset, int litLength) {
+		if (litLength > 0) {
+			if (offset == reps[0]) {
+				return 1;
+			} else if (offset == reps[1]) {
+				reps[1] = reps[0];
+				reps[0] = offset;
+				return 2;
+			} else if (offset == reps[2]) {
+				reps[2] = reps[1];
+				reps[1] = reps[0];
+				reps[0] = offset;
+				return 3;
+			}
+		} else {
+			if (offset == reps[1]) {
+				reps[1] = reps[0];
+				reps[0] = offset;
+				return 1;
+			} else if (offset == reps[2]) {
+				reps[2] = reps[1];
+				reps[1] = reps[0];
+				reps[0] = offset;
+				return 2;
+			} else if (offset == reps[0] - 1) {
+				reps[2] = reps[1];
+				reps[1] = reps[0];
+				reps[0] = offset;
+				return 3;
+			}
+		}
+		reps[2] = reps[1];
+		reps[1] = reps[0];
+		reps[0] = offset;
+		return offset + 3;
+	}
+
+	private static int llCode(int litLength) {
+		return litLength < LL_CODES.length ? LL_CODES[litLength] : (31 - Integer.numberOfLeadingZeros(litLength)) + 19;
+	}
+
+	private static int mlCode(int matchLength) {
+		int value = matchLength - 3;
+		return value < ML_CODES.length ? ML_CODES[value] : (31 - Integer.numberOfLeadingZeros(value)) + 36;
+	}
+
+	/**
+	 * Builds a table of codes of values below the given size from the given base values.
+	 */
+	private static byte[] codes(int[] base, int bias, int size) {
+		byte[] codes = new byte[size];
+		int code = 0;
+		for (int value = 0; value < size; value++) {
+			while (code + 1 < base.length && base[code + 1] - bias <= value) code++;
+			codes[value] = (byte) code;
+		}
+		return codes;
+	}
+}
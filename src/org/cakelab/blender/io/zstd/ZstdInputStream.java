@@ -0,0 +1,92 @@
+package org.cakelab.blender.io.zstd;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decompresses a stream of Zstandard frames.
+ * <p>
+ * Frames get decoded block by block. Skippable frames (such as 
+ * seek tables) are skipped.
+ * </p>
+ */
+public class ZstdInputStream extends InputStream {
+	
+	private InputStream in;
+	private ZstdFrameDecoder decoder = new ZstdFrameDecoder();
+	
+	/** range of decoded data in the output of the decoder, which has not been read yet */
+	private int pos;
+	private int limit;
+	
+	private boolean eof;
+	
+	public ZstdInputStream(InputStream in) {
+		this.in = in;
+	}
+
+	/**
+	 * Decodes the next block.
+	 * @return false at the end of the stream
+	 */
+	private boolean fill() throws IOException {
+		if (eof) return false;
+		if (decoder.isFrameFinished()) {
+			if (!decoder.beginFrame(in)) {
+				eof = true;
+				return false;
+			}
+		}
+		pos = decoder.decodeBlock(in);
+		limit = decoder.position();
+		return true;
+	}
+	
+	@Override
+	public int read() throws IOException {
+		while (pos == limit) {
+			if (!fill()) return -1;
+		}
+		return decoder.output()[pos++] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) return 0;
+		while (pos == limit) {
+			if (!fill()) return -1;
+		}
+		int n = Math.min(len, limit - pos);
+		System.arraycopy(decoder.output(), pos, b, off, n);
+		pos += n;
+		return n;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		long skipped = 0;
+		while (skipped < n) {
+			while (pos == limit) {
+				if (!fill()) return skipped;
+			}
+			int k = (int) Math.min(n - skipped, limit - pos);
+			pos += k;
+			skipped += k;
+		}
+		return skipped;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return limit - pos;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (in != null) {
+			in.close();
+			in = null;
+		}
+		decoder = null;
+	}
+}
@@ -0,0 +1,111 @@
+package org.cakelab.blender.io.zstd;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+import org.cakelab.blender.io.util.FrameCompressingOutputStream;
+
+/**
+ * Compresses data into the seekable Zstandard format (see {@link SeekableZstd}).
+ * <p>
+ * The data is split into frames of a fixed size, which are compressed
+ * independent of each other (see {@link ZstdFrameEncoder}), optionally
+ * concurrently on an {@link Executor}. The stream is terminated by a seek
+ * table, which lists the compressed and decompressed size of each frame.
+ * This is the format written by Blender itself. Decoders unaware of the
+ * seek table read the file as a sequence of frames and skip the seek table.
+ * </p>
+ */
+public class ZstdOutputStream extends FrameCompressingOutputStream {
+
+	public static final int MIN_LEVEL = ZstdFrameEncoder.MIN_LEVEL;
+	public static final int MAX_LEVEL = ZstdFrameEncoder.MAX_LEVEL;
+	public static final int DEFAULT_LEVEL = ZstdFrameEncoder.DEFAULT_LEVEL;
+
+	private final int level;
+	/** idle encoders (encoders are not thread safe but reusable) */
+	private final ConcurrentLinkedQueue<ZstdFrameEncoder> encoders = new ConcurrentLinkedQueue<ZstdFrameEncoder>();
+
+	/** seek table entries: compressed and decompressed size of each frame */
+	private int[] seekTable = new int[64];
+	private int frames;
+
+
+	public ZstdOutputStream(OutputStream out) {
+		this(out, DEFAULT_LEVEL, null);
+	}
+
+	/**
+	 * @param out Stream receiving the compressed data.
+	 * @param level Compression level from {@link #MIN_LEVEL} to {@link #MAX_LEVEL}.
+	 * @param executor Executor to compress frames concurrently or null.
+	 */
+	public ZstdOutputStream(OutputStream out, int level, Executor executor) {
+		this(out, level, executor, DEFAULT_FRAME_SIZE);
+	}
+
+	/**
+	 * @param out Stream receiving the compressed data.
+	 * @param level Compression level from {@link #MIN_LEVEL} to {@link #MAX_LEVEL}.
+	 * @param executor Executor to compress frames concurrently or null.
+	 * @param frameSize Amount of uncompressed data per frame.
+	 */
+	public ZstdOutputStream(OutputStream out, int level, Executor executor, int frameSize) {
+		super(out, frameSize, executor);
+		if (level < MIN_LEVEL || level > MAX_LEVEL) throw new IllegalArgumentException("invalid zstd compression level: " + level);
+		this.level = level;
+	}
+
+	@Override
+	protected byte[] compress(byte[] data, int length, byte[] dictionary) {
+		ZstdFrameEncoder encoder = encoders.poll();
+		if (encoder == null) encoder = new ZstdFrameEncoder(level);
+		try {
+			return encoder.encode(data, 0, length);
+		} finally {
+			encoders.add(encoder);
+		}
+	}
+
+	@Override
+	protected void frameWritten(int length, int compressedLength) {
+		if (2 * frames + 2 > seekTable.length) {
+			int[] tmp = new int[2 * seekTable.length];
+			System.arraycopy(seekTable, 0, tmp, 0, seekTable.length);
+			seekTable = tmp;
+		}
+		seekTable[2 * frames] = compressedLength;
+		seekTable[2 * frames + 1] = length;
+		frames++;
+	}
+
+	/**
+	 * Writes the seek table in a skippable frame.
+	 */
+	@Override
+	protected void writeTrailer(OutputStream out) throws IOException {
+		int tableSize = frames * 8 + SeekableZstd.FOOTER_SIZE;
+		byte[] table = new byte[SeekableZstd.SKIPPABLE_HEADER_SIZE + tableSize];
+		int pos = putIntLE(table, 0, SeekableZstd.SEEK_TABLE_FRAME_MAGIC);
+		pos = putIntLE(table, pos, tableSize);
+		for (int i = 0; i < 2 * frames; i++) {
+			pos = putIntLE(table, pos, seekTable[i]);
+		}
+		pos = putIntLE(table, pos, frames);
+		// descriptor: no checksums
+		table[pos++] = 0;
+		putIntLE(table, pos, SeekableZstd.SEEK_TABLE_MAGIC);
+		out.write(table);
+		encoders.clear();
+	}
+
+	private static int putIntLE(byte[] b, int pos, int value) {
+		b[pos++] = (byte) value;
+		b[pos++] = (byte) (value >>> 8);
+		b[pos++] = (byte) (value >>> 16);
+		b[pos++] = (byte) (value >>> 24);
+		return pos;
+	}
+}
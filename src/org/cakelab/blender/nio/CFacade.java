@@ -2,7 +2,7 @@ package org.cakelab.blender.nio;
 
 
 import java.io.IOException;
-import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.nio.ByteOrder;
@@ -50,6 +50,45 @@ import org.cakelab.blender.io.block.*;
  *
  */
 public abstract class CFacade {
+	
+	/**
+	 * Cache of SDNA indices of facade classes 
+	 * (see {@link #__io__sdnaIndex(Class)}).
+	 */
+	private static final ClassValue<Integer> __io__sdnaIndices = new ClassValue<Integer>() {
+		@Override
+		protected Integer computeValue(Class<?> type) {
+			int sdnaIndex = -1;
+			Class<?> superClass = type.getSuperclass();
+			if (superClass != null && superClass.equals(CFacade.class)) {
+				try {
+					Field f = type.getDeclaredField("__DNA__SDNA_INDEX");
+					sdnaIndex = f.getInt(null);
+				} catch (NoSuchFieldException e) {
+					// not a facade of a DNA struct
+				} catch (SecurityException | IllegalArgumentException | IllegalAccessException e) {
+					throw new RuntimeException("internal error", e);
+				}
+			}
+			return sdnaIndex;
+		}
+	};
+	
+	/**
+	 * Registry of instantiators of facade classes 
+	 * (see {@link #__io__instantiator(Class)}).
+	 */
+	private static final ClassValue<CFacadeInstantiator> __io__instantiators = new ClassValue<CFacadeInstantiator>() {
+		@Override
+		protected CFacadeInstantiator computeValue(Class<?> type) {
+			try {
+				return CFacadeInstantiators.create(type);
+			} catch (NoSuchMethodException | IllegalAccessException e) {
+				throw new IllegalArgumentException("cannot instantiate facade class '" + type.getName() + "'", e);
+			}
+		}
+	};
+	
 	/** Address of the data for this instance in an existing block. */
 	protected long __io__address;
 	
@@ -162,6 +201,19 @@ public abstract class CFacade {
 		}
 	}
 
+	/**
+	 * Returns the SDNA index of the struct represented by the 
+	 * given facade class (see static field <code>__DNA__SDNA_INDEX</code> in
+	 * generated facades). The index is determined by reflection once per class
+	 * and cached afterwards.
+	 * 
+	 * @param type Any type, which may or may not be a facade of a DNA struct.
+	 * @return SDNA index or -1 if the given type is not a facade of a DNA struct.
+	 */
+	public static int __io__sdnaIndex(Class<?> type) {
+		return __io__sdnaIndices.get(type);
+	}
+	
 	/**
 	 * This method creates a pointer on the given instance (object).
 	 * @param object The instance whose pointer is requested.
@@ -237,13 +289,21 @@ public abstract class CFacade {
 	 */
 	public static CFacade __io__newInstance(Class<? extends CFacade> type, long address,
 			Block block, BlockTable blockTable) throws InstantiationException, IllegalAccessException, IllegalArgumentException, InvocationTargetException, NoSuchMethodException, SecurityException {
-		Constructor<?> constructor = type.getDeclaredConstructor(long.class, Block.class, BlockTable.class);
-		return (CFacade) constructor.newInstance(address, block, blockTable);
+		return __io__instantiator(type).newInstance(address, block, blockTable);
 	}
 
-	static CFacade __io__newInstance(Constructor<?> constructor, Class<? extends CFacade> type, long address,
-			Block block, BlockTable blockTable) throws InstantiationException, IllegalAccessException, IllegalArgumentException, InvocationTargetException, NoSuchMethodException, SecurityException {
-		return (CFacade) constructor.newInstance(address, block, blockTable);
+	/**
+	 * Returns the instantiator for the given facade class. The instantiator
+	 * is created once per class and calls the constructor 
+	 * <code>(long address, Block block, BlockTable blockTable)</code> 
+	 * of the class without reflection.
+	 * 
+	 * @param type The type of facade to instantiate.
+	 * @return instantiator of the given facade class.
+	 * @throws IllegalArgumentException if the class has no accessible constructor with the given signature.
+	 */
+	public static CFacadeInstantiator __io__instantiator(Class<? extends CFacade> type) {
+		return __io__instantiators.get(type);
 	}
 
 	
@@ -303,10 +363,7 @@ public abstract class CFacade {
 		} else {
 			size = (int) source.__io__sizeof(source.getClass());
 		}
-		// TODO: ZZZ support direct memory copy (without buffer) or reuse buffer
-		byte[] buffer = new byte[size];
-		source.__io__block.readFully(source.__io__address, buffer);
-		targetBlock.writeFully(targetAddress, buffer);
+		targetBlock.copy(targetAddress, source.__io__block, source.__io__address, size);
 	}
 
 	/**
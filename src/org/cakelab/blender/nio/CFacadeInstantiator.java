@@ -0,0 +1,23 @@
+package org.cakelab.blender.nio;
+
+import org.cakelab.blender.io.block.Block;
+import org.cakelab.blender.io.block.BlockTable;
+
+/**
+ * An instantiator creates instances of a specific facade class.
+ * <p>
+ * Instantiators are created once per facade class and 
+ * provided by {@link CFacade#__io__instantiator(Class)}.
+ * </p>
+ */
+public interface CFacadeInstantiator {
+	
+	/**
+	 * Creates a new facade instance.
+	 * @param address The associated address for the instantiated facade.
+	 * @param block The block, which contains the address.
+	 * @param blockTable the global block map of the associated file.
+	 * @return new facade instance
+	 */
+	CFacade newInstance(long address, Block block, BlockTable blockTable);
+}
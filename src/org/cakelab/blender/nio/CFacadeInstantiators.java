@@ -0,0 +1,78 @@
+package org.cakelab.blender.nio;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.UndeclaredThrowableException;
+
+import org.cakelab.blender.io.block.Block;
+import org.cakelab.blender.io.block.BlockTable;
+
+/**
+ * Creates instantiators for facade classes (see {@link CFacadeInstantiator}).
+ * <p>
+ * The instantiator is generated through {@link LambdaMetafactory}, which
+ * results in a plain constructor call. If the facade class is not visible
+ * to the class loader of Java .Blend (e.g. if the generated model was loaded 
+ * by a child class loader), the instantiator invokes the constructor 
+ * through a {@link MethodHandle} instead.
+ * </p>
+ */
+final class CFacadeInstantiators {
+	
+	private static final MethodType CONSTRUCTOR_TYPE = MethodType.methodType(void.class, long.class, Block.class, BlockTable.class);
+	private static final MethodType FACTORY_TYPE = MethodType.methodType(CFacade.class, long.class, Block.class, BlockTable.class);
+
+	/**
+	 * Instantiator which invokes the constructor through a method handle.
+	 */
+	private static class MethodHandleInstantiator implements CFacadeInstantiator {
+		private final MethodHandle constructor;
+
+		MethodHandleInstantiator(MethodHandle constructor) {
+			this.constructor = constructor.asType(FACTORY_TYPE);
+		}
+
+		@Override
+		public CFacade newInstance(long address, Block block, BlockTable blockTable) {
+			try {
+				return (CFacade) constructor.invokeExact(address, block, blockTable);
+			} catch (RuntimeException | Error e) {
+				throw e;
+			} catch (Throwable e) {
+				throw new UndeclaredThrowableException(e);
+			}
+		}
+	}
+	
+	static CFacadeInstantiator create(Class<?> type) throws NoSuchMethodException, IllegalAccessException {
+		MethodHandles.Lookup lookup = MethodHandles.lookup();
+		MethodHandle constructor = lookup.findConstructor(type, CONSTRUCTOR_TYPE);
+		if (isVisible(type)) {
+			try {
+				CallSite site = LambdaMetafactory.metafactory(lookup, "newInstance", 
+						MethodType.methodType(CFacadeInstantiator.class), 
+						FACTORY_TYPE, 
+						constructor, 
+						MethodType.methodType(type, long.class, Block.class, BlockTable.class));
+				return (CFacadeInstantiator) site.getTarget().invoke();
+			} catch (Throwable e) {
+				// fall through
+			}
+		}
+		return new MethodHandleInstantiator(constructor);
+	}
+
+	/**
+	 * Tests whether the given type can be resolved by the class loader of this class.
+	 */
+	private static boolean isVisible(Class<?> type) {
+		try {
+			return Class.forName(type.getName(), false, CFacadeInstantiators.class.getClassLoader()) == type;
+		} catch (ClassNotFoundException e) {
+			return false;
+		}
+	}
+}
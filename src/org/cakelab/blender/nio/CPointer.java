@@ -1,8 +1,6 @@
 package org.cakelab.blender.nio;
 import java.io.IOException;
 import java.lang.reflect.Array;
-import java.lang.reflect.Constructor;
-import java.lang.reflect.InvocationTargetException;
 import java.util.Arrays;
 
 import org.cakelab.blender.io.block.Block;
@@ -203,8 +201,8 @@ public class CPointer<T> extends CFacade {
 	protected long targetSize;
 	
 	/** In case this pointer references instances of structs, we cache
-	 * a reference on the constructor to instantiate instances. */
-	private Constructor<T> constructor;
+	 * a reference on the instantiator to instantiate instances. */
+	private CFacadeInstantiator instantiator;
 	
 	/**
 	 * Copy constructor which allows assigning another address.
@@ -218,7 +216,7 @@ public class CPointer<T> extends CFacade {
 		super(other, targetAddress);
 		this.targetTypeList = other.targetTypeList;
 		this.targetSize = other.targetSize;
-		this.constructor = other.constructor;
+		this.instantiator = other.instantiator;
 	}
 
 	/**
@@ -960,13 +958,12 @@ public class CPointer<T> extends CFacade {
 			} else {
 				if (isNull()) return null;
 				// pointer on struct
-				if (constructor == null) {
-					constructor = (Constructor<T>) targetTypeList[0].getDeclaredConstructor(long.class, Block.class, BlockTable.class);
+				if (instantiator == null) {
+					instantiator = CFacade.__io__instantiator((Class<? extends CFacade>) targetTypeList[0]);
 				}
-				return (T) CFacade.__io__newInstance(constructor, (Class<? extends CFacade>) targetTypeList[0], targetAddress, __io__block, __io__blockTable);
+				return (T) instantiator.newInstance(targetAddress, __io__block, __io__blockTable);
 			}
-		} catch (InstantiationException | IllegalAccessException
-				| IllegalArgumentException | InvocationTargetException | NoSuchMethodException | SecurityException e) {
+		} catch (IllegalArgumentException e) {
 			throw new IOException(e);
 		}
 	}
@@ -19,5 +19,6 @@ public interface CFacadeMembers {
 	public String __io__equals = "__io__equals";
 	public String __io__same__encoding = "__io__same__encoding";
 	public String __io__sizeof = "__io__sizeof";
+	public String __io__sdnaIndex = "__io__sdnaIndex";
 	
 }
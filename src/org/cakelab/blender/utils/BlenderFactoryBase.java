@@ -1,11 +1,8 @@
 package org.cakelab.blender.utils;
 
-import static org.cakelab.blender.typemap.CFacadeMembers.__DNA__SDNA_INDEX;
-
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 
 import org.cakelab.blender.io.BlenderFile;
@@ -129,16 +126,16 @@ public class BlenderFactoryBase {
 	@SuppressWarnings("unchecked")
 	public static <T extends CFacade> T newCStructBlock(Identifier blockCode, Class<T> facetClass, BlenderFile blend) throws IOException {
 		BlockTable blockTable = blend.getBlockTable();
+		int sdnaIndex = CFacade.__io__sdnaIndex(facetClass);
+		if (sdnaIndex < 0) {
+			throw new IOException("you cannot instantiate pointers or arrays this way. Use the appropriate factory methods for the respective types instead.");
+		}
 		try {
-			Field field__dna__sdnaIndex = facetClass.getDeclaredField(__DNA__SDNA_INDEX);
-			int sdnaIndex = field__dna__sdnaIndex.getInt(null);
 			Block block = blockTable.allocate(blockCode, CFacade.__io__sizeof(facetClass, blend.getEncoding().getAddressWidth()), sdnaIndex, 1);
 			blend.add(block);
 			return (T)CFacade.__io__newInstance(facetClass, block.header.getAddress(), block, blockTable);
 		} catch (IllegalArgumentException | InstantiationException | IllegalAccessException | InvocationTargetException | NoSuchMethodException | SecurityException e) {
 			throw new IOException(e);
-		} catch (NoSuchFieldException e) {
-			throw new IOException("you cannot instantiate pointers or arrays this way. Use the appropriate factory methods for the respective types instead.", e);
 		}
 	}
 	
@@ -164,17 +161,13 @@ public class BlenderFactoryBase {
 	 */
 	public static <T extends CFacade> CArrayFacade<T> newCStructBlock(Identifier blockCode, Class<T> facetClass, int count, BlenderFile blend) throws IOException {
 		BlockTable blockTable = blend.getBlockTable();
-		try {
-			Field field__dna__sdnaIndex = facetClass.getDeclaredField(__DNA__SDNA_INDEX);
-			int sdnaIndex = field__dna__sdnaIndex.getInt(null);
-			Block block = blockTable.allocate(blockCode, CFacade.__io__sizeof(facetClass, blend.getEncoding().getAddressWidth()), sdnaIndex, count);
-			blend.add(block);
-			return new CArrayFacade<T>(block.header.getAddress(), new Class[]{facetClass}, new int[]{count}, block, blockTable);
-		} catch (IllegalArgumentException | IllegalAccessException | SecurityException e) {
-			throw new IOException(e);
-		} catch (NoSuchFieldException e) {
-			throw new IOException("you cannot instantiate pointers or arrays this way. Use the appropriate factory methods for the respective types instead.", e);
+		int sdnaIndex = CFacade.__io__sdnaIndex(facetClass);
+		if (sdnaIndex < 0) {
+			throw new IOException("you cannot instantiate pointers or arrays this way. Use the appropriate factory methods for the respective types instead.");
 		}
+		Block block = blockTable.allocate(blockCode, CFacade.__io__sizeof(facetClass, blend.getEncoding().getAddressWidth()), sdnaIndex, count);
+		blend.add(block);
+		return new CArrayFacade<T>(block.header.getAddress(), new Class[]{facetClass}, new int[]{count}, block, blockTable);
 	}
 
 	/**
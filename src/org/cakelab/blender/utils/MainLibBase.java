@@ -18,6 +18,7 @@ import org.cakelab.blender.io.util.Identifier;
 import org.cakelab.blender.metac.CField;
 import org.cakelab.blender.metac.CStruct;
 import org.cakelab.blender.nio.CFacade;
+import org.cakelab.blender.nio.CFacadeInstantiator;
 import org.cakelab.blender.typemap.NameMapping;
 
 /**
@@ -56,15 +57,16 @@ public abstract class MainLibBase {
 		short size = struct.getType().getSize();
 		try {
 			Class<? extends CFacade> clazz = (Class<? extends CFacade>) MainLibBase.class.getClassLoader().loadClass(packageName + '.' + NameMapping.mapStruct2Class(struct.getType().getName()));
+			CFacadeInstantiator instantiator = CFacade.__io__instantiator(clazz);
 			int count = 0;
 			for (long address = block.header.getAddress(); count < block.header.getCount();
 					address += size) 
 			{
-				CFacade libElem = CFacade.__io__newInstance(clazz, address, block, blockTable);
+				CFacade libElem = instantiator.newInstance(address, block, blockTable);
 				addLibraryElement(libElem);
 				count++;
 			}
-		} catch (InstantiationException | IllegalAccessException
+		} catch (IllegalAccessException
 				| IllegalArgumentException | InvocationTargetException
 				| NoSuchMethodException | SecurityException | ClassNotFoundException e) {
 			throw new IOException(e);
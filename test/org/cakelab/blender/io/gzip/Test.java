@@ -0,0 +1,118 @@
+package org.cakelab.blender.io.gzip;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+import org.cakelab.blender.io.Compression;
+import org.cakelab.blender.io.util.ParallelGzipOutputStream;
+
+/**
+ * Round trips of gzip compressed data written with and without
+ * an executor (see {@link ParallelGzipOutputStream}) through
+ * {@link GZIPInputStream}.
+ */
+public class Test {
+
+	private static final int FRAME_SIZE = 16 * 1024;
+	private static final int[] LEVELS = {Compression.DEFAULT_LEVEL, 0, 1, 6, 9};
+
+	public static void main(String[] args) throws IOException {
+		Random random = new Random(4711);
+		byte[] incompressible = new byte[200 * 1024];
+		random.nextBytes(incompressible);
+		byte[] repetitive = new byte[200 * 1024];
+		for (int i = 0; i < repetitive.length; i++) {
+			repetitive[i] = (byte) (i % 251 < 200 ? 0 : i);
+		}
+		byte[][] inputs = {new byte[0], incompressible, repetitive};
+		String[] names = {"empty", "incompressible", "repetitive"};
+
+		ExecutorService[] executors = {newExecutor(1), newExecutor(4)};
+		try {
+			for (int i = 0; i < inputs.length; i++) {
+				for (int level : LEVELS) {
+					// sequential through Compression
+					roundTrip(inputs[i], level, null, 0);
+					for (ExecutorService executor : executors) {
+						// default frame size through Compression
+						roundTrip(inputs[i], level, executor, 0);
+						// many small frames, which refer to the preceding frame
+						roundTrip(inputs[i], level, executor, FRAME_SIZE);
+					}
+				}
+				System.out.println("ok: gzip round trip " + names[i]);
+			}
+		} finally {
+			for (ExecutorService executor : executors) {
+				executor.shutdown();
+			}
+		}
+	}
+
+	/**
+	 * Compresses and decompresses the given data.
+	 * @param frameSize frame size of a {@link ParallelGzipOutputStream} 
+	 *        or 0 to create the stream through {@link Compression#GZIP}.
+	 */
+	private static void roundTrip(byte[] data, int level, ExecutorService executor, int frameSize) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		OutputStream out;
+		if (frameSize > 0) {
+			int gzipLevel = level == Compression.DEFAULT_LEVEL ? Deflater.DEFAULT_COMPRESSION : level;
+			out = new ParallelGzipOutputStream(bytes, gzipLevel, executor, frameSize);
+		} else {
+			out = Compression.GZIP.newOutputStream(bytes, level, executor);
+		}
+		try {
+			// odd chunk sizes to cover partially filled frames
+			int chunk = 7777;
+			for (int pos = 0; pos < data.length; pos += chunk) {
+				out.write(data, pos, Math.min(chunk, data.length - pos));
+			}
+		} finally {
+			out.close();
+		}
+		byte[] result;
+		try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+			result = readAll(in);
+		}
+		check(Arrays.equals(data, result), "data differs at level " + level 
+				+ (executor != null ? " with executor" : "") 
+				+ (frameSize > 0 ? " and frame size " + frameSize : ""));
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int len;
+		while ((len = in.read(buffer)) >= 0) {
+			out.write(buffer, 0, len);
+		}
+		return out.toByteArray();
+	}
+
+	private static ExecutorService newExecutor(int threads) {
+		return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition) throw new AssertionError(message);
+	}
+}
@@ -0,0 +1,164 @@
+package org.cakelab.blender.io.zstd;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.cakelab.blender.io.util.CSeekableZstdReader;
+
+/**
+ * Round trips of {@link ZstdOutputStream} through {@link ZstdInputStream}
+ * and random access to the written files through {@link SeekableZstd}.
+ */
+public class Test {
+
+	private static final int FRAME_SIZE = 64 * 1024;
+	private static final int[] LEVELS = {1, 3, 9, 19, 22};
+
+	public static void main(String[] args) throws IOException {
+		Random random = new Random(4711);
+		byte[][] inputs = {
+			new byte[0],
+			incompressible(random, 300 * 1024),
+			repetitive(300 * 1024),
+			mixed(random, 300 * 1024)
+		};
+		String[] names = {"empty", "incompressible", "repetitive", "mixed"};
+
+		ExecutorService[] executors = {null, newExecutor(1), newExecutor(4)};
+		try {
+			for (int i = 0; i < inputs.length; i++) {
+				for (int level : LEVELS) {
+					for (ExecutorService executor : executors) {
+						roundTrip(inputs[i], level, executor);
+					}
+				}
+				System.out.println("ok: zstd round trip " + names[i]);
+			}
+			seekable(inputs[3], executors[2], random);
+			System.out.println("ok: seekable zstd");
+		} finally {
+			for (ExecutorService executor : executors) {
+				if (executor != null) executor.shutdown();
+			}
+		}
+	}
+
+	private static void roundTrip(byte[] data, int level, ExecutorService executor) throws IOException {
+		byte[] compressed = compress(data, level, executor);
+		byte[] result;
+		try (InputStream in = new ZstdInputStream(new ByteArrayInputStream(compressed))) {
+			result = readAll(in);
+		}
+		check(Arrays.equals(data, result), "data differs at level " + level + (executor != null ? " with executor" : ""));
+	}
+
+	private static void seekable(byte[] data, ExecutorService executor, Random random) throws IOException {
+		File file = File.createTempFile("seekable", ".zst");
+		try {
+			try (FileOutputStream out = new FileOutputStream(file)) {
+				out.write(compress(data, ZstdOutputStream.DEFAULT_LEVEL, executor));
+			}
+			try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+				SeekableZstd source = SeekableZstd.open(channel);
+				check(source.size() == data.length, "size of seekable file");
+				check(source.getFrameCount() == (data.length + FRAME_SIZE - 1) / FRAME_SIZE, "frame count of seekable file");
+				CSeekableZstdReader reader = new CSeekableZstdReader(source, ByteOrder.LITTLE_ENDIAN, 8);
+				try {
+					for (int i = 0; i < 1000; i++) {
+						int offset = random.nextInt(data.length);
+						// reads also cross frame boundaries
+						int length = Math.min(random.nextInt(2 * FRAME_SIZE), data.length - offset);
+						byte[] b = new byte[length];
+						reader.offset(offset);
+						reader.readFully(b, 0, length);
+						check(Arrays.equals(Arrays.copyOfRange(data, offset, offset + length), b), "data differs at offset " + offset);
+					}
+				} finally {
+					reader.close();
+				}
+			}
+		} finally {
+			file.delete();
+		}
+	}
+
+	private static byte[] compress(byte[] data, int level, ExecutorService executor) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ZstdOutputStream out = new ZstdOutputStream(bytes, level, executor, FRAME_SIZE)) {
+			// odd chunk sizes to cover partially filled frames
+			int chunk = 7777;
+			for (int pos = 0; pos < data.length; pos += chunk) {
+				out.write(data, pos, Math.min(chunk, data.length - pos));
+			}
+		}
+		return bytes.toByteArray();
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int len;
+		while ((len = in.read(buffer)) >= 0) {
+			out.write(buffer, 0, len);
+		}
+		return out.toByteArray();
+	}
+
+	private static byte[] incompressible(Random random, int size) {
+		byte[] data = new byte[size];
+		random.nextBytes(data);
+		return data;
+	}
+
+	private static byte[] repetitive(int size) {
+		byte[] data = new byte[size];
+		byte[] pattern = "blender".getBytes();
+		// a run of zeros followed by a short repeated pattern
+		for (int i = size / 2; i < size; i++) {
+			data[i] = pattern[i % pattern.length];
+		}
+		return data;
+	}
+
+	/** Data similar to blocks of a .blend file: structs of text, numbers and pointers. */
+	private static byte[] mixed(Random random, int size) {
+		String[] words = {"Object", "Mesh", "Material", "Camera", "Light", "Scene", "World"};
+		ByteArrayOutputStream out = new ByteArrayOutputStream(size);
+		while (out.size() < size) {
+			byte[] name = words[random.nextInt(words.length)].getBytes();
+			out.write(name, 0, name.length);
+			out.write(random.nextInt(10));
+			for (int i = 0; i < 8; i++) {
+				out.write(i < 4 ? random.nextInt(256) : 0);
+			}
+		}
+		return Arrays.copyOf(out.toByteArray(), size);
+	}
+
+	private static ExecutorService newExecutor(int threads) {
+		return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition) throw new AssertionError(message);
+	}
+}